@@ -0,0 +1,102 @@
+package miouge;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Small bounded map used to keep compiled formats around.
+ * <p>
+ * Lookups are lock free. When the capacity is exceeded an entry is evicted
+ * with the "second chance" (clock) policy, which approximates LRU without
+ * writing to shared state on every hit. The sweep resumes where the last
+ * one stopped, and entries start unreferenced, so a run of keys put once
+ * evicts its own keys before the ones still being looked up.
+ *
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ */
+final class BoundedCache<K, V> {
+
+	private static final class Entry<V> {
+
+		final V value;
+
+		/**
+		 * set on every hit, cleared by the eviction sweep; a new entry has
+		 * to be hit once before it gets a second chance.
+		 */
+		volatile boolean referenced;
+
+		Entry(V value) {
+			this.value = value;
+		}
+	}
+
+	private final ConcurrentHashMap<K, Entry<V>> map;
+
+	private final int capacity;
+
+	/**
+	 * clock hand, where the eviction sweep resumes; guarded by
+	 * {@link #evict()}.
+	 */
+	private Iterator<Map.Entry<K, Entry<V>>> hand;
+
+	BoundedCache(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		this.capacity = capacity;
+		this.map = new ConcurrentHashMap<K, Entry<V>>(capacity * 2);
+	}
+
+	/**
+	 * @param key
+	 *            looked up key
+	 * @return the cached value or <code>null</code>
+	 */
+	V get(K key) {
+		Entry<V> e = map.get(key);
+		if (e == null)
+			return null;
+		if (!e.referenced)
+			e.referenced = true;
+		return e.value;
+	}
+
+	/**
+	 * Stores a value, evicting an older one when the cache is full.
+	 *
+	 * @param key
+	 *            key
+	 * @param value
+	 *            value to keep
+	 */
+	void put(K key, V value) {
+		map.put(key, new Entry<V>(value));
+		if (map.size() > capacity)
+			evict();
+	}
+
+	int size() {
+		return map.size();
+	}
+
+	private synchronized void evict() {
+		while (map.size() > capacity) {
+			if (hand == null || !hand.hasNext())
+				hand = map.entrySet().iterator();
+			while (hand.hasNext() && map.size() > capacity) {
+				Map.Entry<K, Entry<V>> slot = hand.next();
+				Entry<V> e = slot.getValue();
+				if (e.referenced)
+					e.referenced = false;
+				else
+					// not a newer entry put under the same key
+					map.remove(slot.getKey(), e);
+			}
+		}
+	}
+}
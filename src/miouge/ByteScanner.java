@@ -0,0 +1,146 @@
+package miouge;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * Scanner matching {@link ScanPattern}s directly against ASCII or UTF-8
+ * bytes, without decoding them to a {@link String} first.
+ * <p>
+ * The format literals and terminators are encoded in UTF-8 once per
+ * pattern; the input is then compared byte by byte. Fetched strings are
+ * reported as byte ranges of the array or buffer: read them with
+ * {@link ScanResult#getStart(int)} and {@link ScanResult#getLength(int)},
+ * and only decode the ones needed with {@link ScanResult#getString(int)}.
+ * Numbers are decoded from the bytes, or from their decoded text when they
+ * hold non-ASCII characters (digits of other scripts), and <code>%c</code>
+ * fetches one UTF-8 encoded character (the high surrogate for characters
+ * outside the BMP).
+ * <p>
+ * A scanner is not thread-safe; reset and reuse one per thread.
+ */
+public final class ByteScanner {
+
+	/**
+	 * view of the current input.
+	 */
+	private final ByteSequence input = new ByteSequence();
+
+	/**
+	 * Start and end (exclusive) of the scanned range.
+	 */
+	private int start, end;
+
+	/**
+	 * result used by {@link #scan(ScanPattern)}.
+	 */
+	private final ScanResult scratch = new ScanResult();
+
+	/**
+	 * Sets a slice of an array as the next input. Fetched ranges are indexes
+	 * in the array.
+	 *
+	 * @param data
+	 *            bytes to scan
+	 * @param offset
+	 *            index of the first byte to scan
+	 * @param length
+	 *            number of bytes to scan
+	 * @return this scanner
+	 */
+	public ByteScanner reset(byte[] data, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > data.length)
+			throw new IndexOutOfBoundsException("slice " + offset + "+" + length + " of " + data.length);
+		input.reset(data);
+		start = offset;
+		end = offset + length;
+		return this;
+	}
+
+	/**
+	 * Sets the remaining bytes of a buffer, from its position to its limit,
+	 * as the next input. The buffer position is not changed and fetched
+	 * ranges are absolute indexes in the buffer.
+	 *
+	 * @param buffer
+	 *            heap or direct buffer
+	 * @return this scanner
+	 */
+	public ByteScanner reset(ByteBuffer buffer) {
+		return reset(buffer, buffer.position(), buffer.limit());
+	}
+
+	/**
+	 * Sets a range of a buffer as the next input.
+	 *
+	 * @param buffer
+	 *            heap or direct buffer
+	 * @param start
+	 *            absolute index of the first byte to scan
+	 * @param end
+	 *            absolute index after the last byte to scan
+	 * @return this scanner
+	 */
+	public ByteScanner reset(ByteBuffer buffer, int start, int end) {
+		if (start < 0 || end > buffer.limit() || start > end)
+			throw new IndexOutOfBoundsException("range [" + start + ", " + end + ") of " + buffer.limit());
+		input.reset(buffer);
+		this.start = start;
+		this.end = end;
+		return this;
+	}
+
+	/**
+	 * Matches the current input against a pattern, see
+	 * {@link Sscanf#scanf(String)} for the matching rules.
+	 *
+	 * @param pattern
+	 *            compiled format
+	 * @return an array containing all the fetched elements from input, or
+	 *         <code>null</code> when the input is empty
+	 * @throws ParseException
+	 *             When an input character differs from the one expected by
+	 *             the format.
+	 * @throws NumberFormatException
+	 *             a numeric capture is not a valid number.
+	 */
+	public Object[] scan(ScanPattern pattern) throws ParseException {
+		if (scan(pattern, scratch) == -1)
+			return null;
+		return scratch.toArray();
+	}
+
+	/**
+	 * Matches the current input against a pattern and stores the fetched
+	 * elements, as byte ranges for strings, in a reusable result.
+	 *
+	 * @param pattern
+	 *            compiled format
+	 * @param result
+	 *            cleared and filled with the fetched elements
+	 * @return number of fetched elements, -1 when the input is empty
+	 * @throws ParseException
+	 *             When an input byte differs from the one expected by the
+	 *             format.
+	 * @throws NumberFormatException
+	 *             a numeric capture is not a valid number.
+	 */
+	public int scan(ScanPattern pattern, ScanResult result) throws ParseException {
+		return SequenceScanner.report(match(pattern, result), result);
+	}
+
+	/**
+	 * Matches the current input against a pattern without throwing, see
+	 * {@link SequenceScanner#match(ScanPattern, ScanResult)}. Error offsets
+	 * are byte indexes.
+	 *
+	 * @param pattern
+	 *            compiled format
+	 * @param result
+	 *            cleared and filled with the fetched elements and the outcome
+	 * @return {@link ScanResult#getStatus()}
+	 */
+	public int match(ScanPattern pattern, ScanResult result) {
+		return SequenceScanner.run(pattern.utf8(), 0, input, start, start, end, result);
+	}
+}
@@ -0,0 +1,123 @@
+package miouge;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable view of a <code>byte[]</code> or a {@link ByteBuffer} holding
+ * ASCII or UTF-8 text, used by {@link ByteScanner}.
+ * <p>
+ * Indexes are those of the underlying array or buffer. {@link #charAt(int)}
+ * returns the raw byte value (0 to 255), which is the character itself for
+ * ASCII text; {@link #subSequence(int, int)} and {@link #toString()} decode
+ * UTF-8.
+ */
+final class ByteSequence implements CharSequence {
+
+	private byte[] array;
+
+	/**
+	 * used when the buffer has no accessible array.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * offset of index 0 in {@link #array}.
+	 */
+	private int arrayOffset;
+
+	private int length;
+
+	void reset(byte[] array) {
+		this.array = array;
+		this.buffer = null;
+		this.arrayOffset = 0;
+		this.length = array.length;
+	}
+
+	void reset(ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			this.array = buffer.array();
+			this.buffer = null;
+			this.arrayOffset = buffer.arrayOffset();
+		} else {
+			this.array = null;
+			this.buffer = buffer;
+			this.arrayOffset = 0;
+		}
+		this.length = buffer.limit();
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (array != null)
+			return (char) (array[arrayOffset + index] & 0xff);
+		return (char) (buffer.get(index) & 0xff);
+	}
+
+	/**
+	 * @param index
+	 *            index of the first byte of a character
+	 * @return number of bytes of the UTF-8 sequence starting at index, 1 for
+	 *         a malformed sequence
+	 */
+	int sequenceLength(int index) {
+		int b = charAt(index);
+		int n = b < 0x80 ? 1 : b < 0xc2 ? 1 : b < 0xe0 ? 2 : b < 0xf0 ? 3 : b < 0xf5 ? 4 : 1;
+		if (index + n > length)
+			return 1;
+		for (int i = 1; i < n; ++i)
+			if ((charAt(index + i) & 0xc0) != 0x80)
+				return 1;
+		return n;
+	}
+
+	/**
+	 * @param index
+	 *            index of the first byte of a character
+	 * @return the code point starting at index, U+FFFD for a malformed
+	 *         sequence
+	 */
+	int codePointAt(int index) {
+		int n = sequenceLength(index);
+		int b = charAt(index);
+		if (n == 1)
+			return b < 0x80 ? b : 0xfffd;
+		int cp = b & (0xff >> (n + 1));
+		for (int i = 1; i < n; ++i)
+			cp = (cp << 6) | (charAt(index + i) & 0x3f);
+		return cp <= Character.MAX_CODE_POINT ? cp : 0xfffd;
+	}
+
+	/**
+	 * Appends the decoded characters of a range.
+	 */
+	void appendTo(int start, int end, StringBuilder out) {
+		for (int i = start; i < end;) {
+			int n = sequenceLength(i);
+			out.appendCodePoint(codePointAt(i));
+			i += n;
+		}
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end)
+			throw new IndexOutOfBoundsException("range [" + start + ", " + end + ") of " + length);
+		if (array != null)
+			return new String(array, arrayOffset + start, end - start, StandardCharsets.UTF_8);
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(end).position(start);
+		return StandardCharsets.UTF_8.decode(slice).toString();
+	}
+
+	@Override
+	public String toString() {
+		return subSequence(0, length).toString();
+	}
+}
@@ -0,0 +1,595 @@
+package miouge;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Random;
+
+/**
+ * Integer arithmetic between epoch seconds and civil date-time fields, for
+ * zones with a fixed offset (UTC, {@link ZoneOffset}s). It follows the
+ * proleptic Gregorian calendar of java.time and gives the same results as
+ * {@link java.time.ZonedDateTime} without allocating.
+ * <p>
+ * Operations return {@link #OUT_OF_RANGE} when a value leaves the range
+ * where they are known to agree with java.time; callers then fall back to
+ * java.time, which throws the appropriate exception.
+ */
+final class CivilTime {
+
+	static final int NOT_FIXED = Integer.MIN_VALUE;
+
+	static final long OUT_OF_RANGE = Long.MIN_VALUE;
+
+	static final long SECONDS_PER_DAY = 86400;
+
+	// LocalDate.MIN and LocalDate.MAX
+	static final long MIN_YEAR = -999999999;
+	static final long MAX_YEAR = 999999999;
+	static final long MIN_EPOCH_DAY = -365243219162L;
+	static final long MAX_EPOCH_DAY = 365241780471L;
+
+	// larger amounts are left to java.time
+	static final long MAX_AMOUNT = 1L << 40;
+
+	private CivilTime() {
+	}
+
+	//-------------------------------- zones -----------------------------------
+
+	// offset in seconds of a zone without transitions, NOT_FIXED otherwise
+	static int fixedOffset( ZoneId zoneId ) {
+
+		if( zoneId instanceof ZoneOffset ) {
+			return ( (ZoneOffset)zoneId ).getTotalSeconds();
+		}
+		ZoneRules rules = zoneId.getRules();
+		if( rules.isFixedOffset() ) {
+			return rules.getOffset( Instant.EPOCH ).getTotalSeconds();
+		}
+		return NOT_FIXED;
+	}
+
+	//-------------------------------- calendar --------------------------------
+
+	static boolean isLeapYear( long year ) {
+
+		return ( year & 3 ) == 0 && ( year % 100 != 0 || year % 400 == 0 );
+	}
+
+	static int lengthOfMonth( long year, int month ) {
+
+		switch( month ) {
+			case 2:
+				return isLeapYear( year ) ? 29 : 28;
+			case 4:
+			case 6:
+			case 9:
+			case 11:
+				return 30;
+			default:
+				return 31;
+		}
+	}
+
+	// days since 1970-01-01 of a valid date
+	static long daysFromCivil( long year, int month, int day ) {
+
+		long y = month <= 2 ? year - 1 : year;
+		long era = Math.floorDiv( y, 400 );
+		long yoe = y - era * 400;
+		long doy = ( 153 * ( month > 2 ? month - 3 : month + 9 ) + 2 ) / 5 + day - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	// date of a day since 1970-01-01, packed by pack()
+	static long civilFromDays( long days ) {
+
+		long z = days + 719468;
+		long era = Math.floorDiv( z, 146097 );
+		long doe = z - era * 146097;
+		long yoe = ( doe - doe / 1460 + doe / 36524 - doe / 146096 ) / 365;
+		long doy = doe - ( 365 * yoe + yoe / 4 - yoe / 100 );
+		long mp = ( 5 * doy + 2 ) / 153;
+		int day = (int)( doy - ( 153 * mp + 2 ) / 5 + 1 );
+		int month = (int)( mp < 10 ? mp + 3 : mp - 9 );
+		long year = yoe + era * 400 + ( month <= 2 ? 1 : 0 );
+		return pack( year, month, day );
+	}
+
+	static long pack( long year, int month, int day ) {
+
+		return year << 9 | month << 5 | day;
+	}
+
+	static long year( long date ) {
+
+		return date >> 9;
+	}
+
+	static int month( long date ) {
+
+		return (int)( date >> 5 ) & 0xf;
+	}
+
+	static int day( long date ) {
+
+		return (int)date & 0x1f;
+	}
+
+	//-------------------------------- arithmetic ------------------------------
+
+	// local seconds (epoch + offset) of an epoch, OUT_OF_RANGE outside LocalDateTime
+	static long toLocal( long epoch, int offset ) {
+
+		if( epoch < -( 1L << 60 ) || epoch > 1L << 60 ) {
+			return OUT_OF_RANGE;
+		}
+		return checkLocal( epoch + offset );
+	}
+
+	static long plusYears( long local, long years ) {
+
+		if( local == OUT_OF_RANGE || years < -MAX_AMOUNT || years > MAX_AMOUNT ) {
+			return OUT_OF_RANGE;
+		}
+		if( years == 0 ) {
+			return local;
+		}
+		long days = Math.floorDiv( local, SECONDS_PER_DAY );
+		long date = civilFromDays( days );
+		return withDate( local, days, year( date ) + years, month( date ), day( date ) );
+	}
+
+	static long plusMonths( long local, long months ) {
+
+		if( local == OUT_OF_RANGE || months < -MAX_AMOUNT || months > MAX_AMOUNT ) {
+			return OUT_OF_RANGE;
+		}
+		if( months == 0 ) {
+			return local;
+		}
+		long days = Math.floorDiv( local, SECONDS_PER_DAY );
+		long date = civilFromDays( days );
+		long count = year( date ) * 12 + month( date ) - 1 + months;
+		return withDate( local, days, Math.floorDiv( count, 12 ), (int)Math.floorMod( count, 12 ) + 1, day( date ) );
+	}
+
+	static long plusDays( long local, long days ) {
+
+		if( local == OUT_OF_RANGE || days < -MAX_AMOUNT || days > MAX_AMOUNT ) {
+			return OUT_OF_RANGE;
+		}
+		return checkLocal( local + days * SECONDS_PER_DAY );
+	}
+
+	static long plusHours( long local, long hours ) {
+
+		if( hours < -MAX_AMOUNT || hours > MAX_AMOUNT ) {
+			return OUT_OF_RANGE;
+		}
+		return plusSeconds( local, hours * 3600 );
+	}
+
+	static long plusSeconds( long local, long seconds ) {
+
+		if( local == OUT_OF_RANGE || seconds < -MAX_AMOUNT * 3600 || seconds > MAX_AMOUNT * 3600 ) {
+			return OUT_OF_RANGE;
+		}
+		return checkLocal( local + seconds );
+	}
+
+	// epoch plus amounts applied one after the other, as ZonedDateTime.plusXxx
+	static long add( long epoch, int offset, long years, long months, long days, long hours, long minutes, long seconds ) {
+
+		long local = toLocal( epoch, offset );
+		local = plusYears( local, years );
+		local = plusMonths( local, months );
+		local = plusDays( local, days );
+		local = plusHours( local, hours );
+		local = plusSeconds( local, minutes < -MAX_AMOUNT || minutes > MAX_AMOUNT ? OUT_OF_RANGE : minutes * 60 );
+		local = plusSeconds( local, seconds );
+		return local == OUT_OF_RANGE ? OUT_OF_RANGE : local - offset;
+	}
+
+	// epoch shifted by an amount of EpochTool period units ('H', 'D', 'M', 'A' or 'T')
+	static long shift( long epoch, int offset, long amount, char periodUnit ) {
+
+		long local = toLocal( epoch, offset );
+		switch( periodUnit )
+		{
+			case 'H':
+				local = plusHours( local, amount );
+				break;
+			case 'D':
+				local = plusDays( local, amount );
+				break;
+			case 'M':
+				local = plusMonths( local, amount );
+				break;
+			case 'A':
+			case 'T':
+				local = plusYears( local, amount );
+				break;
+			default:
+				return OUT_OF_RANGE;
+		}
+		return local == OUT_OF_RANGE ? OUT_OF_RANGE : local - offset;
+	}
+
+	// local seconds of a date-time, OUT_OF_RANGE if a field is invalid
+	static long ofFields( long year, int month, int day, int hour, int minute, int second ) {
+
+		if( year < MIN_YEAR || year > MAX_YEAR || month < 1 || month > 12 || day < 1 || day > lengthOfMonth( year, month )
+				|| hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 ) {
+			return OUT_OF_RANGE;
+		}
+		return daysFromCivil( year, month, day ) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+	}
+
+	// same time of day on another date, the day clamped to the month length
+	private static long withDate( long local, long days, long year, int month, int day ) {
+
+		if( year < MIN_YEAR || year > MAX_YEAR ) {
+			return OUT_OF_RANGE;
+		}
+		long secondOfDay = local - days * SECONDS_PER_DAY;
+		return daysFromCivil( year, month, Math.min( day, lengthOfMonth( year, month ) ) ) * SECONDS_PER_DAY + secondOfDay;
+	}
+
+	private static long checkLocal( long local ) {
+
+		long days = Math.floorDiv( local, SECONDS_PER_DAY );
+		if( days < MIN_EPOCH_DAY || days > MAX_EPOCH_DAY ) {
+			return OUT_OF_RANGE;
+		}
+		return local;
+	}
+
+	//-------------------------------- check -----------------------------------
+
+	// randomized equivalence check of this class and ZoneTable against java.time, seeded so a failure can be replayed:
+	// the calendar day by day over years 1 to 9999 and at the ends of LocalDate, then for each range of transition
+	// years, add, adjust, shiftFromPeriod, toCivilFields and convertToEpoch near offset transitions, in their gaps and
+	// overlaps, at the ends of LocalDate and with amounts around MAX_AMOUNT; throws on the first difference
+	// args: cases per zone and range of transition years (default 20000), seed (default 14)
+	public static void main( String[] args ) throws Exception {
+
+		Check.run( args.length > 0 ? Integer.parseInt( args[0] ) : 20000, args.length > 1 ? Long.parseLong( args[1] ) : 14 );
+	}
+
+	// out of the class initializer, loaded by main only
+	private static final class Check {
+
+		private static final ZoneId[] zones = {
+				EpochTool.UTC,
+				ZoneOffset.ofHoursMinutes( 5, 30 ),
+				ZoneOffset.ofTotalSeconds( -18 * 3600 ),
+				ZoneOffset.ofTotalSeconds( 18 * 3600 ),
+				ZoneId.of( "Etc/GMT+5" ),
+				ZoneId.of( "Europe/Paris" ),
+				ZoneId.of( "America/New_York" ),
+				ZoneId.of( "America/Sao_Paulo" ),
+				ZoneId.of( "Australia/Lord_Howe" ),
+				ZoneId.of( "Pacific/Apia" ),
+				ZoneId.of( "Africa/Casablanca" ),
+				ZoneId.of( "Asia/Kathmandu" ) };
+
+		// transition years tried, the default first
+		private static final int[][] transitionYears = { { 1900, 2100 }, { 1970, 2037 }, { 2010, 2011 }, { 1, 9999 } };
+
+		private static final char[] periodUnits = { 's', 'H', 'D', 'M', 'A', 'T' };
+
+		// epochs whose local time is in years 1 to 9999 in every zone
+		private static final long MIN_EPOCH = LocalDate.of( 1, 1, 2 ).toEpochDay() * SECONDS_PER_DAY;
+		private static final long MAX_EPOCH = LocalDate.of( 9999, 12, 31 ).toEpochDay() * SECONDS_PER_DAY - 1;
+
+		private static final DateTimeFormatter dashFull = DateTimeFormatter.ofPattern( "yyyy-MM-dd HH:mm:ss" );
+
+		static void run( int cases, long seed ) throws Exception {
+
+			checkCalendar();
+			System.out.println( "calendar of years 1 to 9999 and ends of LocalDate: ok" );
+
+			Random random = new Random( seed );
+			try {
+				for( int[] years : transitionYears ) {
+					EpochTool.setTransitionYears( years[0], years[1] );
+					for( ZoneId zoneId : zones ) {
+						for( int i = 0; i < cases; i++ ) {
+							checkCase( random, zoneId );
+							if( i % 8 == 0 ) {
+								checkEdgeCase( random, zoneId );
+							}
+						}
+					}
+					System.out.printf( "transition years %d to %d, %d zones x %d cases: ok%n", years[0], years[1], zones.length, cases );
+				}
+			}
+			finally {
+				EpochTool.setTransitionYears( transitionYears[0][0], transitionYears[0][1] );
+			}
+		}
+
+		//-------------------------------- check: calendar -------------------------
+
+		private static void checkCalendar() {
+
+			for( int year = 1; year <= 9999; year++ ) {
+				check( "isLeapYear " + year, LocalDate.of( year, 1, 1 ).isLeapYear(), isLeapYear( year ) );
+				for( int month = 1; month <= 12; month++ ) {
+					int length = LocalDate.of( year, month, 1 ).lengthOfMonth();
+					check( "lengthOfMonth " + year + "-" + month, length, lengthOfMonth( year, month ) );
+					for( int day = 1; day <= length; day++ ) {
+						long days = LocalDate.of( year, month, day ).toEpochDay();
+						if( daysFromCivil( year, month, day ) != days ) {
+							fail( "daysFromCivil " + year + "-" + month + "-" + day, days, daysFromCivil( year, month, day ) );
+						}
+						long date = civilFromDays( days );
+						if( year( date ) != year || month( date ) != month || day( date ) != day ) {
+							fail( "civilFromDays " + days, year + "-" + month + "-" + day, year( date ) + "-" + month( date ) + "-" + day( date ) );
+						}
+					}
+				}
+			}
+			for( long year = MIN_YEAR; year < MIN_YEAR + 400; year++ ) {
+				check( "isLeapYear " + year, LocalDate.of( (int)year, 1, 1 ).isLeapYear(), isLeapYear( year ) );
+				check( "isLeapYear " + -year, LocalDate.of( (int)-year, 1, 1 ).isLeapYear(), isLeapYear( -year ) );
+			}
+			for( long i = 0; i < 1000; i++ ) {
+				for( long days : new long[] { MIN_EPOCH_DAY + i, MAX_EPOCH_DAY - i } ) {
+					LocalDate expected = LocalDate.ofEpochDay( days );
+					long date = civilFromDays( days );
+					check( "civilFromDays " + days, expected.toString(), LocalDate.of( (int)year( date ), month( date ), day( date ) ).toString() );
+					check( "daysFromCivil " + expected, days, daysFromCivil( expected.getYear(), expected.getMonthValue(), expected.getDayOfMonth() ) );
+				}
+			}
+		}
+
+		//-------------------------------- check: zones ----------------------------
+
+		private static void checkCase( Random random, ZoneId zoneId ) throws Exception {
+
+			long epoch = epoch( random, zoneId );
+
+			int years = amount( random, 20 );
+			int months = amount( random, 30 );
+			int days = amount( random, 400 );
+			int hours = amount( random, 100 );
+			int minutes = amount( random, 200 );
+			int seconds = amount( random, 100000 );
+			check( "add " + epoch + " " + years + "y" + months + "m" + days + "d" + hours + "h" + minutes + "m" + seconds + "s " + zoneId,
+					outcome( () -> addZoned( epoch, years, months, days, hours, minutes, seconds, zoneId ) ),
+					outcome( () -> EpochTool.add( epoch, years, months, days, hours, minutes, seconds, zoneId ) ) );
+
+			EpochTool.Direction direction = random.nextBoolean() ? EpochTool.Direction.forward : EpochTool.Direction.backward;
+			char periodUnit = periodUnits[random.nextInt( periodUnits.length )];
+			long period = periodUnit == 's' ? random.nextInt( 100000000 ) : random.nextInt( periodUnit == 'H' ? 50000 : 200 );
+			check( "shiftFromPeriod " + epoch + " " + direction + " " + period + periodUnit + " " + zoneId,
+					outcome( () -> shiftZoned( epoch, direction, period, periodUnit, zoneId ) ),
+					outcome( () -> EpochTool.shiftFromPeriod( epoch, direction, period, periodUnit, zoneId ) ) );
+
+			ZonedDateTime zdt = ZonedDateTime.ofInstant( Instant.ofEpochSecond( epoch ), zoneId );
+			long fields = EpochTool.toCivilFields( epoch, zoneId );
+			check( "toCivilFields " + epoch + " " + zoneId, zdt.toLocalDateTime() + " " + zdt.getDayOfWeek().getValue(),
+					LocalDateTime.of( EpochTool.CivilField.YEAR.get( fields ), EpochTool.CivilField.MONTH.get( fields ),
+							EpochTool.CivilField.DAY_OF_MONTH.get( fields ), EpochTool.CivilField.HOUR.get( fields ),
+							EpochTool.CivilField.MINUTE.get( fields ), EpochTool.CivilField.SECOND.get( fields ) )
+							+ " " + EpochTool.CivilField.DAY_OF_WEEK.get( fields ) );
+
+			// a local time, in a gap or an overlap when the zone has transitions
+			LocalDateTime local = local( random, zoneId, zdt );
+			Integer year = random.nextInt( 8 ) == 0 ? null : local.getYear();
+			Integer month = random.nextInt( 8 ) == 0 ? null : local.getMonthValue();
+			Integer day = random.nextInt( 8 ) == 0 ? null : random.nextInt( 16 ) == 0 ? 29 + random.nextInt( 3 ) : local.getDayOfMonth();
+			Integer hour = random.nextInt( 8 ) == 0 ? null : local.getHour();
+			Integer minute = random.nextInt( 8 ) == 0 ? null : local.getMinute();
+			Integer second = random.nextInt( 8 ) == 0 ? null : local.getSecond();
+			check( "adjust " + epoch + " " + year + "-" + month + "-" + day + " " + hour + ":" + minute + ":" + second + " " + zoneId,
+					outcome( () -> adjustZoned( epoch, year, month, day, hour, minute, second, zoneId ) ),
+					outcome( () -> EpochTool.adjust( epoch, year, month, day, hour, minute, second, zoneId, false ) ) );
+
+			String text = local.format( dashFull );
+			check( "convertToEpoch " + text + " " + zoneId,
+					outcome( () -> ZonedDateTime.of( LocalDateTime.parse( text, dashFull ), zoneId ).toEpochSecond() ),
+					outcome( () -> EpochTool.convertToEpoch( text, EpochTool.Format.STD_DASH_FULL, zoneId, EpochTool.NULL_EPOCH ) ) );
+		}
+
+		// epochs at the ends of LocalDate, amounts reaching them and amounts around MAX_AMOUNT
+		private static void checkEdgeCase( Random random, ZoneId zoneId ) throws Exception {
+
+			long edge = random.nextBoolean()
+					? MIN_EPOCH_DAY * SECONDS_PER_DAY + random.nextInt( 3 * 86400 )
+					: ( MAX_EPOCH_DAY + 1 ) * SECONDS_PER_DAY - 1 - random.nextInt( 3 * 86400 );
+			check( "toCivilFields " + edge + " " + zoneId,
+					outcome( () -> ZonedDateTime.ofInstant( Instant.ofEpochSecond( edge ), zoneId ).toLocalDateTime().toEpochSecond( ZoneOffset.UTC ) ),
+					outcome( () -> localOf( EpochTool.toCivilFields( edge, zoneId ) ) ) );
+			int hours = random.nextInt( 101 ) - 50;
+			check( "add " + edge + " " + hours + "h " + zoneId,
+					outcome( () -> addZoned( edge, 0, 0, 0, hours, 0, 0, zoneId ) ),
+					outcome( () -> EpochTool.add( edge, 0, 0, 0, hours, 0, 0, zoneId ) ) );
+			Integer year = random.nextBoolean() ? (int)MIN_YEAR : (int)MAX_YEAR;
+			check( "adjust " + edge + " " + year + " " + zoneId,
+					outcome( () -> adjustZoned( edge, year, null, null, null, null, null, zoneId ) ),
+					outcome( () -> EpochTool.adjust( edge, year, null, null, null, null, null, zoneId, false ) ) );
+
+			long epoch = epoch( random, zoneId );
+			EpochTool.Direction direction = random.nextBoolean() ? EpochTool.Direction.forward : EpochTool.Direction.backward;
+			char periodUnit = periodUnits[random.nextInt( periodUnits.length )];
+			long period = random.nextBoolean() ? toEnd( epoch, direction, periodUnit, zoneId ) : periodUnit == 's' ? MAX_AMOUNT * 3600 : MAX_AMOUNT;
+			long near = period + random.nextInt( 3 ) - 1;
+			check( "shiftFromPeriod " + epoch + " " + direction + " " + near + periodUnit + " " + zoneId,
+					outcome( () -> shiftZoned( epoch, direction, near, periodUnit, zoneId ) ),
+					outcome( () -> EpochTool.shiftFromPeriod( epoch, direction, near, periodUnit, zoneId ) ) );
+			check( "shiftFromPeriod " + edge + " " + direction + " 1" + periodUnit + " " + zoneId,
+					outcome( () -> shiftZoned( edge, direction, 1, periodUnit, zoneId ) ),
+					outcome( () -> EpochTool.shiftFromPeriod( edge, direction, 1, periodUnit, zoneId ) ) );
+
+			int years = (int)( direction == EpochTool.Direction.forward ? toEnd( epoch, direction, 'A', zoneId ) : -toEnd( epoch, direction, 'A', zoneId ) )
+					+ random.nextInt( 3 ) - 1;
+			check( "add " + epoch + " " + years + "y " + zoneId,
+					outcome( () -> addZoned( epoch, years, 0, 0, 0, 0, 0, zoneId ) ),
+					outcome( () -> EpochTool.add( epoch, years, 0, 0, 0, 0, 0, zoneId ) ) );
+		}
+
+		// amount of period units from the local time of epoch to the end of LocalDate in that direction
+		private static long toEnd( long epoch, EpochTool.Direction direction, char periodUnit, ZoneId zoneId ) {
+
+			boolean forward = direction == EpochTool.Direction.forward;
+			LocalDateTime local = ZonedDateTime.ofInstant( Instant.ofEpochSecond( epoch ), zoneId ).toLocalDateTime();
+			long seconds = local.toEpochSecond( ZoneOffset.UTC );
+			switch( periodUnit )
+			{
+				case 's':
+					return forward ? ( MAX_EPOCH_DAY + 1 ) * SECONDS_PER_DAY - 1 - seconds : seconds - MIN_EPOCH_DAY * SECONDS_PER_DAY;
+				case 'H':
+					return ( forward ? ( MAX_EPOCH_DAY + 1 ) * SECONDS_PER_DAY - 1 - seconds : seconds - MIN_EPOCH_DAY * SECONDS_PER_DAY ) / 3600;
+				case 'D':
+					return forward ? MAX_EPOCH_DAY - local.toLocalDate().toEpochDay() : local.toLocalDate().toEpochDay() - MIN_EPOCH_DAY;
+				case 'M':
+					long month = local.getYear() * 12L + local.getMonthValue() - 1;
+					return forward ? MAX_YEAR * 12 + 11 - month : month - MIN_YEAR * 12;
+				default:
+					return forward ? MAX_YEAR - local.getYear() : local.getYear() - MIN_YEAR;
+			}
+		}
+
+		// local seconds of fields packed by toCivilFields
+		private static long localOf( long fields ) {
+
+			return ofFields( EpochTool.CivilField.YEAR.get( fields ), EpochTool.CivilField.MONTH.get( fields ), EpochTool.CivilField.DAY_OF_MONTH.get( fields ),
+					EpochTool.CivilField.HOUR.get( fields ), EpochTool.CivilField.MINUTE.get( fields ), EpochTool.CivilField.SECOND.get( fields ) );
+		}
+
+		// any epoch of years 1 to 9999, or one close to an offset transition
+		private static long epoch( Random random, ZoneId zoneId ) {
+
+			long epoch = MIN_EPOCH + (long)( random.nextDouble() * ( MAX_EPOCH - MIN_EPOCH ) );
+			if( random.nextBoolean() ) {
+				ZoneOffsetTransition transition = zoneId.getRules().nextTransition( Instant.ofEpochSecond( epoch ) );
+				if( transition != null && transition.toEpochSecond() < MAX_EPOCH - 86400 ) {
+					epoch = transition.toEpochSecond() + random.nextInt( 4 * 3600 ) - 2 * 3600;
+				}
+			}
+			return epoch;
+		}
+
+		// local time of a gap or an overlap near zdt, or zdt's own one
+		private static LocalDateTime local( Random random, ZoneId zoneId, ZonedDateTime zdt ) {
+
+			ZoneOffsetTransition transition = zoneId.getRules().nextTransition( zdt.toInstant().minusSeconds( 86400 ) );
+			if( transition == null || random.nextInt( 4 ) == 0 || transition.getDateTimeBefore().getYear() > 9999 ) {
+				return zdt.toLocalDateTime();
+			}
+			LocalDateTime before = transition.getDateTimeBefore();
+			LocalDateTime after = transition.getDateTimeAfter();
+			LocalDateTime earlier = before.isBefore( after ) ? before : after;
+			long width = Math.abs( transition.getDuration().getSeconds() );
+			return earlier.plusSeconds( (long)( random.nextDouble() * width ) );
+		}
+
+		private static int amount( Random random, int bound ) {
+
+			switch( random.nextInt( 4 ) )
+			{
+				case 0:
+					return 0;
+				case 1:
+					return random.nextInt( 2 * bound + 1 ) - bound;
+				case 2:
+					return random.nextInt( 11 ) - 5;
+				default:
+					return random.nextInt( 2 * bound * 1000 + 1 ) - bound * 1000;
+			}
+		}
+
+		//-------------------------------- check: java.time ------------------------
+
+		// what add computed before the fast path
+		private static long addZoned( long epoch, int years, int months, int days, int hours, int minutes, int seconds, ZoneId zoneId ) {
+
+			return ZonedDateTime.ofInstant( Instant.ofEpochSecond( epoch ), zoneId )
+					.plusYears( years ).plusMonths( months ).plusDays( days ).plusHours( hours ).plusMinutes( minutes ).plusSeconds( seconds )
+					.toEpochSecond();
+		}
+
+		// what adjust computed before the fast path
+		private static long adjustZoned( long epoch, Integer year, Integer month, Integer day, Integer hour, Integer minute, Integer second, ZoneId zoneId ) {
+
+			ZonedDateTime zdt = ZonedDateTime.ofInstant( Instant.ofEpochSecond( epoch ), zoneId );
+			LocalDateTime local = LocalDateTime.of(
+					year != null ? year : zdt.getYear(),
+					month != null ? month : zdt.getMonthValue(),
+					day != null ? day : zdt.getDayOfMonth(),
+					hour != null ? hour : zdt.getHour(),
+					minute != null ? minute : zdt.getMinute(),
+					second != null ? second : zdt.getSecond() );
+			return ZonedDateTime.of( local, zoneId ).toEpochSecond();
+		}
+
+		// what shiftFromPeriod computed before the fast path
+		private static long shiftZoned( long epoch, EpochTool.Direction direction, long period, char periodUnit, ZoneId zoneId ) {
+
+			long amount = direction == EpochTool.Direction.forward ? period : -period;
+			if( periodUnit == 's' ) {
+				return epoch + amount;
+			}
+			ZonedDateTime zdt = ZonedDateTime.ofInstant( Instant.ofEpochSecond( epoch ), zoneId );
+			switch( periodUnit )
+			{
+				case 'H':
+					return zdt.plusHours( amount ).toEpochSecond();
+				case 'D':
+					return zdt.plusDays( amount ).toEpochSecond();
+				case 'M':
+					return zdt.plusMonths( amount ).toEpochSecond();
+				default:
+					return zdt.plusYears( amount ).toEpochSecond();
+			}
+		}
+
+		//-------------------------------- check: reporting ------------------------
+
+		private interface Computation {
+
+			long compute() throws Exception;
+		}
+
+		// the value, or the kind of failure: both sides must fail alike
+		private static String outcome( Computation computation ) {
+
+			try {
+				return String.valueOf( computation.compute() );
+			}
+			catch( DateTimeException e ) {
+				return "DateTimeException";
+			}
+			catch( ArithmeticException e ) {
+				return "ArithmeticException";
+			}
+			catch( Exception e ) {
+				return e.getClass().getSimpleName();
+			}
+		}
+
+		private static void check( String what, Object expected, Object actual ) {
+
+			if( !expected.equals( actual ) ) {
+				fail( what, expected, actual );
+			}
+		}
+
+		private static void fail( String what, Object expected, Object actual ) {
+
+			throw new IllegalStateException( what + ": expected " + expected + ", got " + actual );
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package miouge;
+
+/**
+ * Current epoch second kept in a volatile field by a daemon thread, for
+ * callers that stamp many events and can accept a value up to one interval
+ * late.
+ * <p>
+ * {@link #now} holds {@link #STOPPED} while no ticker runs, so a reader
+ * tells the mode and gets the second with a single field read.
+ */
+final class CoarseClock {
+
+	static final long STOPPED = Long.MIN_VALUE;
+
+	// current second, STOPPED in precise mode
+	static volatile long now = STOPPED;
+
+	private static Thread ticker;
+
+	private CoarseClock() {
+	}
+
+	static synchronized void start( final long intervalMillis ) {
+
+		if( intervalMillis <= 0 ) {
+			throw new IllegalArgumentException( "interval must be positive: " + intervalMillis );
+		}
+		stop();
+		now = currentSecond();
+
+		ticker = new Thread( "EpochTool coarse clock" ) {
+			@Override
+			public void run() {
+				while( !isInterrupted() ) {
+					try {
+						Thread.sleep( intervalMillis );
+					}
+					catch( InterruptedException e ) {
+						return;
+					}
+					now = currentSecond();
+				}
+			}
+		};
+		ticker.setDaemon( true );
+		ticker.start();
+	}
+
+	static synchronized void stop() {
+
+		if( ticker == null ) {
+			return;
+		}
+		ticker.interrupt();
+		boolean interrupted = false;
+		while( ticker.isAlive() ) {
+			try {
+				ticker.join();
+			}
+			catch( InterruptedException e ) {
+				interrupted = true;
+			}
+		}
+		ticker = null;
+		now = STOPPED;
+		if( interrupted ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static long currentSecond() {
+
+		return Math.floorDiv( System.currentTimeMillis(), 1000 );
+	}
+}
@@ -0,0 +1,118 @@
+package miouge;
+
+import java.time.ZoneId;
+
+/**
+ * Last bucket computed by {@link EpochTool#truncate(long, char, ZoneId)} on
+ * each thread: the epochs of one hour, day, month or year of a zone, all
+ * truncated to the same epoch. Sorted or clustered epochs then mostly take
+ * a range check.
+ * <p>
+ * A bucket is kept only when its local times lie in a single segment of
+ * the {@link ZoneTable}, where truncating is a subtraction; buckets crossing
+ * a transition are computed on every call.
+ */
+final class EpochBucket {
+
+	private static final ThreadLocal<EpochBucket> perThread = new ThreadLocal<EpochBucket>() {
+		@Override
+		protected EpochBucket initialValue() {
+			return new EpochBucket();
+		}
+	};
+
+	private ZoneId zoneId;
+	private char periodUnit;
+
+	// epochs of the bucket, the end excluded, and their truncation
+	private long start;
+	private long end;
+
+	private EpochBucket() {
+	}
+
+	static long truncate( long epoch, char periodUnit, ZoneId zoneId ) {
+
+		EpochBucket bucket = perThread.get();
+		if( epoch >= bucket.start && epoch < bucket.end && periodUnit == bucket.periodUnit && ( zoneId == bucket.zoneId || zoneId.equals( bucket.zoneId ) ) ) {
+			return bucket.start;
+		}
+		return bucket.compute( epoch, periodUnit, zoneId );
+	}
+
+	private long compute( long epoch, char periodUnit, ZoneId zoneId ) {
+
+		ZoneTable table = ZoneTable.of( zoneId );
+		long local = table.toLocal( epoch );
+		if( local == CivilTime.OUT_OF_RANGE ) {
+			return adjust( epoch, periodUnit, zoneId );
+		}
+
+		long localStart;
+		long localEnd;
+		long days = Math.floorDiv( local, CivilTime.SECONDS_PER_DAY );
+		switch( periodUnit )
+		{
+			case 'H':
+				localStart = Math.floorDiv( local, 3600 ) * 3600;
+				localEnd = localStart + 3600;
+				break;
+			case 'D':
+				localStart = days * CivilTime.SECONDS_PER_DAY;
+				localEnd = localStart + CivilTime.SECONDS_PER_DAY;
+				break;
+			case 'M': {
+				long date = CivilTime.civilFromDays( days );
+				long year = CivilTime.year( date );
+				int month = CivilTime.month( date );
+				localStart = CivilTime.daysFromCivil( year, month, 1 ) * CivilTime.SECONDS_PER_DAY;
+				localEnd = ( month == 12 ? CivilTime.daysFromCivil( year + 1, 1, 1 ) : CivilTime.daysFromCivil( year, month + 1, 1 ) ) * CivilTime.SECONDS_PER_DAY;
+				break;
+			}
+			case 'A':
+			case 'T': {
+				long year = CivilTime.year( CivilTime.civilFromDays( days ) );
+				localStart = CivilTime.daysFromCivil( year, 1, 1 ) * CivilTime.SECONDS_PER_DAY;
+				localEnd = CivilTime.daysFromCivil( year + 1, 1, 1 ) * CivilTime.SECONDS_PER_DAY;
+				break;
+			}
+			default:
+				throw new IllegalArgumentException( "unexpected periodUnit value: " + periodUnit );
+		}
+
+		// as adjust, the start of the bucket in a gap or an overlap is resolved as ZonedDateTime.of
+		long output = table.toEpoch( localStart, ZoneTable.NO_PREFERENCE );
+		if( output == CivilTime.OUT_OF_RANGE ) {
+			return adjust( epoch, periodUnit, zoneId );
+		}
+
+		int segment = table.segmentOf( localStart );
+		if( segment >= 0 && localEnd <= table.segmentEnd( segment ) ) {
+			int offset = table.segmentOffset( segment );
+			this.zoneId = zoneId;
+			this.periodUnit = periodUnit;
+			this.start = localStart - offset;
+			this.end = localEnd - offset;
+		}
+		return output;
+	}
+
+	// java.time for epochs outside the table
+	private static long adjust( long epoch, char periodUnit, ZoneId zoneId ) {
+
+		switch( periodUnit )
+		{
+			case 'H':
+				return EpochTool.callUnchecked( () -> EpochTool.adjust( epoch, null, null, null, null, 0, 0, zoneId, false ) );
+			case 'D':
+				return EpochTool.callUnchecked( () -> EpochTool.adjust( epoch, null, null, null, 0, 0, 0, zoneId, false ) );
+			case 'M':
+				return EpochTool.callUnchecked( () -> EpochTool.adjust( epoch, null, null, 1, 0, 0, 0, zoneId, false ) );
+			case 'A':
+			case 'T':
+				return EpochTool.callUnchecked( () -> EpochTool.adjust( epoch, null, 1, 1, 0, 0, 0, zoneId, false ) );
+			default:
+				throw new IllegalArgumentException( "unexpected periodUnit value: " + periodUnit );
+		}
+	}
+}
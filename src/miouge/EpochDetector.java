@@ -0,0 +1,202 @@
+package miouge;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+import miouge.EpochTool.Format;
+
+/**
+ * Tells which {@link Format} a timestamp is written in from the shape of
+ * its characters (length, digits and separators), without parsing nor
+ * throwing. The canonical text of each format has its own shape, so one
+ * pass over the text settles it; CALENDAR is recognized by its digits
+ * around the day name. ISO instants with a fraction of second
+ * ("2021-04-30T10:00:00.250Z"), which no Format describes, are recognized
+ * by {@link #isIsoInstant(CharSequence)}.
+ * <p>
+ * An instance converts the timestamps of one feed: the first format
+ * detected is locked, and later timestamps are only checked against its
+ * shape. A timestamp of another shape is detected on its own, the lock is
+ * kept. An instance is not thread-safe.
+ */
+public final class EpochDetector {
+
+	// formats with a fixed layout, by text length
+	private static final Format[][] byLength = new Format[32][];
+
+	static {
+
+		for( Format format : Format.values() ) {
+			if( format.layout != null ) {
+				int length = format.layout.length();
+				Format[] formats = byLength[length];
+				if( formats == null ) {
+					formats = new Format[0];
+				}
+				formats = Arrays.copyOf( formats, formats.length + 1 );
+				formats[formats.length - 1] = format;
+				byLength[length] = formats;
+			}
+		}
+	}
+
+	private final ZoneId zoneId;
+
+	private Format locked;
+	private boolean lockedIsoInstant;
+
+	public EpochDetector( ZoneId zoneId ) {
+
+		this.zoneId = zoneId == null ? EpochTool.UTC : zoneId;
+	}
+
+	// format whose shape the text has, null when none (an ISO instant with a fraction included)
+	public static Format detect( CharSequence date ) {
+
+		int length = date.length();
+		if( length < byLength.length && byLength[length] != null ) {
+			for( Format format : byLength[length] ) {
+				if( format.layout.matches( date ) ) {
+					return format;
+				}
+			}
+		}
+		if( isCalendar( date ) ) {
+			return Format.CALENDAR;
+		}
+		return null;
+	}
+
+	// true for yyyy-MM-ddTHH:mm:ss.fZ with 1 to 9 digits of fraction, as Instant.parse reads it
+	public static boolean isIsoInstant( CharSequence date ) {
+
+		int length = date.length();
+		if( length < 22 || length > 30 || date.charAt( 19 ) != '.' || date.charAt( length - 1 ) != 'Z' ) {
+			return false;
+		}
+		for( int i = 20; i < length - 1; i++ ) {
+			if( !isDigit( date.charAt( i ) ) ) {
+				return false;
+			}
+		}
+		return Format.ISO8601.layout.matches( new Prefix( date, 19, 'Z' ) );
+	}
+
+	// epoch of a timestamp in any detected format, nullEpoch when its shape is unknown or has no time;
+	// a known shape with out of range fields (a 13th month) still throws, as convertToEpoch
+	public long toEpoch( CharSequence date, long nullEpoch ) {
+
+		if( date == null ) {
+			return nullEpoch;
+		}
+		if( locked != null && locked.layout != null && locked.layout.matches( date ) ) {
+			return EpochTool.convertToEpoch( date, locked, zoneId, nullEpoch );
+		}
+		if( lockedIsoInstant && isIsoInstant( date ) ) {
+			return Instant.parse( date ).getEpochSecond();
+		}
+
+		Format format = detect( date );
+		if( format != null && hasTime( format ) ) {
+			if( locked == null && !lockedIsoInstant ) {
+				locked = format;
+			}
+			return EpochTool.convertToEpoch( date, format, zoneId, nullEpoch );
+		}
+		if( format == null && isIsoInstant( date ) ) {
+			if( locked == null ) {
+				lockedIsoInstant = true;
+			}
+			return Instant.parse( date ).getEpochSecond();
+		}
+		return nullEpoch;
+	}
+
+	// format locked by the first detection, null before it or when it was an ISO instant
+	public Format getLockedFormat() {
+
+		return locked;
+	}
+
+	public boolean isLockedOnIsoInstant() {
+
+		return lockedIsoInstant;
+	}
+
+	// forgets the locked format, for the next feed
+	public void reset() {
+
+		locked = null;
+		lockedIsoInstant = false;
+	}
+
+	// convertToEpoch reads a LocalDateTime, the formats of a date alone never parse
+	private static boolean hasTime( Format format ) {
+
+		return format.layout == null || format.layout.isDateTime();
+	}
+
+	// yyyy-MM-dd E(e) HH:mm:ss, the day name being any text
+	private static boolean isCalendar( CharSequence date ) {
+
+		int length = date.length();
+		if( length < 24 ) {
+			return false;
+		}
+		int e = length - 11;
+		return isDigits( date, 0, 4 ) && date.charAt( 4 ) == '-' && isDigits( date, 5, 2 ) && date.charAt( 7 ) == '-' && isDigits( date, 8, 2 )
+				&& date.charAt( 10 ) == ' ' && date.charAt( e - 1 ) == '(' && isDigit( date.charAt( e ) ) && date.charAt( e + 1 ) == ')'
+				&& date.charAt( e + 2 ) == ' ' && isDigits( date, e + 3, 2 ) && date.charAt( e + 5 ) == ':' && isDigits( date, e + 6, 2 )
+				&& date.charAt( e + 8 ) == ':' && isDigits( date, e + 9, 2 );
+	}
+
+	private static boolean isDigits( CharSequence date, int from, int count ) {
+
+		for( int i = from; i < from + count; i++ ) {
+			if( !isDigit( date.charAt( i ) ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isDigit( char c ) {
+
+		return c >= '0' && c <= '9';
+	}
+
+	// the first characters of a text followed by one more, without copying
+	private static final class Prefix implements CharSequence {
+
+		private final CharSequence text;
+		private final int length;
+		private final char last;
+
+		Prefix( CharSequence text, int length, char last ) {
+			this.text = text;
+			this.length = length;
+			this.last = last;
+		}
+
+		@Override
+		public int length() {
+			return length + 1;
+		}
+
+		@Override
+		public char charAt( int index ) {
+			return index == length ? last : text.charAt( index );
+		}
+
+		@Override
+		public CharSequence subSequence( int start, int end ) {
+			return toString().subSequence( start, end );
+		}
+
+		@Override
+		public String toString() {
+			return new StringBuilder( this ).toString();
+		}
+	}
+}
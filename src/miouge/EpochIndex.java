@@ -0,0 +1,289 @@
+package miouge;
+
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Epochs of events kept sorted in a primitive array, for counting and
+ * reading the events of a window with two binary searches.
+ * <p>
+ * A window goes from an epoch to the same epoch shifted as
+ * {@link EpochTool#shiftFromPeriod(long, EpochTool.Direction, long, char, ZoneId)}
+ * does: [t, t + 1 day) forward, [t - 1 day, t) backward. The earlier
+ * bound is included and the later one excluded, whatever the direction.
+ * {@link #buckets} walks the consecutive windows of a series, as
+ * {@link EpochTool#series} steps it.
+ * <p>
+ * Epochs are mostly appended in order: an epoch not before the last one
+ * is appended, another one is inserted in place; bulk loads are sorted,
+ * then merged. {@link EpochTool#NULL_EPOCH} is not indexed. An index is
+ * not thread-safe.
+ */
+public final class EpochIndex {
+
+	private long[] epochs;
+	private int size;
+
+	public EpochIndex() {
+
+		this( 16 );
+	}
+
+	public EpochIndex( int capacity ) {
+
+		epochs = new long[Math.max( capacity, 1 )];
+	}
+
+	// index of epochs in any order, the array is copied
+	public static EpochIndex of( long[] epochs ) {
+
+		EpochIndex index = new EpochIndex( epochs.length );
+		index.addAll( epochs, 0, epochs.length );
+		return index;
+	}
+
+	//-------------------------------- Loading ---------------------------------
+
+	public void add( long epoch ) {
+
+		if( epoch == EpochTool.NULL_EPOCH ) {
+			return;
+		}
+		ensureCapacity( size + 1 );
+		if( size == 0 || epoch >= epochs[size - 1] ) {
+			epochs[size++] = epoch;
+			return;
+		}
+		// after the epochs equal to it, fewer to move
+		int at = upperBound( epoch );
+		System.arraycopy( epochs, at, epochs, at + 1, size - at );
+		epochs[at] = epoch;
+		size++;
+	}
+
+	// adds in[from, to) in any order
+	public void addAll( long[] in, int from, int to ) {
+
+		ensureCapacity( size + to - from );
+		int start = size;
+		for( int i = from; i < to; i++ ) {
+			if( in[i] != EpochTool.NULL_EPOCH ) {
+				epochs[size++] = in[i];
+			}
+		}
+		if( !isSorted( start, size ) ) {
+			Arrays.sort( epochs, start, size );
+		}
+		if( start > 0 && start < size && epochs[start - 1] > epochs[start] ) {
+			merge( start );
+		}
+	}
+
+	public void clear() {
+
+		size = 0;
+	}
+
+	//-------------------------------- Access ----------------------------------
+
+	public int size() {
+
+		return size;
+	}
+
+	public long get( int index ) {
+
+		if( index < 0 || index >= size ) {
+			throw new IndexOutOfBoundsException( "index: " + index + ", size: " + size );
+		}
+		return epochs[index];
+	}
+
+	public long[] toArray() {
+
+		return Arrays.copyOf( epochs, size );
+	}
+
+	// index of the first epoch not before epoch, size when none
+	public int lowerBound( long epoch ) {
+
+		int low = 0;
+		int high = size;
+		while( low < high ) {
+			int middle = ( low + high ) >>> 1;
+			if( epochs[middle] < epoch ) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	// number of epochs in [fromEpoch, toEpoch)
+	public int count( long fromEpoch, long toEpoch ) {
+
+		return fromEpoch < toEpoch ? lowerBound( toEpoch ) - lowerBound( fromEpoch ) : 0;
+	}
+
+	// epochs in [fromEpoch, toEpoch)
+	public long[] range( long fromEpoch, long toEpoch ) {
+
+		if( fromEpoch >= toEpoch ) {
+			return new long[0];
+		}
+		return Arrays.copyOfRange( epochs, lowerBound( fromEpoch ), lowerBound( toEpoch ) );
+	}
+
+	//-------------------------------- Windows ---------------------------------
+
+	// number of epochs between startEpoch and startEpoch shifted by the period
+	public int countInWindow( long startEpoch, EpochTool.Direction direction, long period, char periodUnit, ZoneId periodZoneId ) {
+
+		long shifted = shift( startEpoch, direction, period, periodUnit, periodZoneId );
+		return count( Math.min( startEpoch, shifted ), Math.max( startEpoch, shifted ) );
+	}
+
+	// epochs between startEpoch and startEpoch shifted by the period
+	public long[] window( long startEpoch, EpochTool.Direction direction, long period, char periodUnit, ZoneId periodZoneId ) {
+
+		long shifted = shift( startEpoch, direction, period, periodUnit, periodZoneId );
+		return range( Math.min( startEpoch, shifted ), Math.max( startEpoch, shifted ) );
+	}
+
+	// windows of the epochs of EpochTool.series( startEpoch, endEpoch, ... ), each one up to the next epoch of the series
+	public Iterator<Bucket> buckets( long startEpoch, long endEpoch, EpochTool.Direction direction, long period, char periodUnit, ZoneId periodZoneId ) {
+
+		ZoneId zoneIdUsed = periodZoneId == null ? EpochTool.UTC : periodZoneId;
+		final EpochSeries series = new EpochSeries( startEpoch, endEpoch, direction, period, periodUnit, zoneIdUsed );
+		return new Iterator<Bucket>() {
+
+			private boolean started;
+			private boolean last;
+			private long next;
+
+			@Override
+			public boolean hasNext() {
+				return started ? !last : series.hasNext();
+			}
+
+			@Override
+			public Bucket next() {
+				if( !hasNext() ) {
+					throw new NoSuchElementException();
+				}
+				long current = started ? next : series.nextLong();
+				started = true;
+				long shifted;
+				if( series.hasNext() ) {
+					shifted = series.nextLong();
+					next = shifted;
+				}
+				else {
+					shifted = shift( current, direction, period, periodUnit, zoneIdUsed );
+					last = true;
+				}
+				long from = Math.min( current, shifted );
+				long to = Math.max( current, shifted );
+				return new Bucket( from, to, lowerBound( from ), lowerBound( to ) );
+			}
+		};
+	}
+
+	// epochs of an index in [start, end), at [fromIndex, toIndex) when it was built
+	public static final class Bucket {
+
+		private final long start;
+		private final long end;
+		private final int fromIndex;
+		private final int toIndex;
+
+		Bucket( long start, long end, int fromIndex, int toIndex ) {
+			this.start = start;
+			this.end = end;
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+
+		public int getFromIndex() {
+			return fromIndex;
+		}
+
+		public int getToIndex() {
+			return toIndex;
+		}
+
+		public int size() {
+			return toIndex - fromIndex;
+		}
+	}
+
+	//-------------------------------- Internals -------------------------------
+
+	private static long shift( long epoch, EpochTool.Direction direction, long period, char periodUnit, ZoneId periodZoneId ) {
+
+		return EpochTool.callUnchecked( () -> EpochTool.shiftFromPeriod( epoch, direction, period, periodUnit, periodZoneId ) );
+	}
+
+	// index of the first epoch after epoch
+	private int upperBound( long epoch ) {
+
+		int low = 0;
+		int high = size;
+		while( low < high ) {
+			int middle = ( low + high ) >>> 1;
+			if( epochs[middle] <= epoch ) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private boolean isSorted( int from, int to ) {
+
+		for( int i = from + 1; i < to; i++ ) {
+			if( epochs[i - 1] > epochs[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// merges the sorted epochs [0, start) and [start, size), from the end
+	private void merge( int start ) {
+
+		long[] added = Arrays.copyOfRange( epochs, start, size );
+		int i = start - 1;
+		int j = added.length - 1;
+		int k = size - 1;
+		while( j >= 0 ) {
+			if( i >= 0 && epochs[i] > added[j] ) {
+				epochs[k--] = epochs[i--];
+			}
+			else {
+				epochs[k--] = added[j--];
+			}
+		}
+	}
+
+	private void ensureCapacity( int capacity ) {
+
+		if( capacity > epochs.length ) {
+			epochs = Arrays.copyOf( epochs, Math.max( capacity, epochs.length + ( epochs.length >> 1 ) ) );
+		}
+	}
+}
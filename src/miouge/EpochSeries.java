@@ -0,0 +1,183 @@
+package miouge;
+
+import java.time.ZoneId;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Epochs from a start, each one shifted from the previous one as
+ * {@link EpochTool#shiftFromPeriod(Long, EpochTool.Direction, Long, char, ZoneId, Boolean)}
+ * does, until an end epoch (excluded).
+ * <p>
+ * Seconds and hours move the instant. Days, months and years move the
+ * local time of the previous element, as the loop would; the offset is
+ * kept while the local time stays in the same segment of the
+ * {@link ZoneTable}, and only resolved again when a step leaves it (at a
+ * DST transition). Steps the table cannot answer go through
+ * shiftFromPeriod itself.
+ * <p>
+ * A series is not thread-safe.
+ */
+final class EpochSeries implements PrimitiveIterator.OfLong {
+
+	private final long end;
+	private final EpochTool.Direction direction;
+	private final long period;
+	private final char periodUnit;
+	private final ZoneId zoneId;
+	private final ZoneTable table;
+
+	// signed amount of a step
+	private final long amount;
+
+	private long next;
+	private boolean done;
+
+	// local time and segment of next, segment -1 when unknown
+	private long local;
+	private int segment = -1;
+	private long segmentStart;
+	private long segmentEnd;
+	private int offset;
+
+	EpochSeries( long start, long end, EpochTool.Direction direction, long period, char periodUnit, ZoneId zoneId ) {
+
+		if( period <= 0 ) {
+			throw new IllegalArgumentException( "period must be positive: " + period );
+		}
+		if( "sHDMAT".indexOf( periodUnit ) < 0 ) {
+			throw new IllegalArgumentException( "unexpected periodUnit value: " + periodUnit );
+		}
+		this.end = end;
+		this.direction = direction;
+		this.period = period;
+		this.periodUnit = periodUnit;
+		this.zoneId = zoneId;
+		this.table = ZoneTable.of( zoneId );
+		this.amount = direction == EpochTool.Direction.forward ? period : -period;
+		this.next = start;
+		this.done = !before( start );
+		locate( start );
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		return !done;
+	}
+
+	@Override
+	public long nextLong() {
+
+		if( done ) {
+			throw new NoSuchElementException();
+		}
+		long current = next;
+		next = step( current );
+		done = !before( next );
+		return current;
+	}
+
+	// fills out from index from, returns the number of epochs written
+	int fill( long[] out, int from ) {
+
+		int i = from;
+		while( i < out.length && !done ) {
+			out[i++] = nextLong();
+		}
+		return i - from;
+	}
+
+	private boolean before( long epoch ) {
+
+		return direction == EpochTool.Direction.forward ? epoch < end : epoch > end;
+	}
+
+	private long step( long epoch ) {
+
+		switch( periodUnit )
+		{
+			case 's':
+				return epoch + amount;
+			case 'H':
+				if( amount >= -CivilTime.MAX_AMOUNT && amount <= CivilTime.MAX_AMOUNT ) {
+					long output = epoch + amount * 3600;
+					if( table.covers( epoch ) && table.covers( output ) ) {
+						return output;
+					}
+				}
+				return shift( epoch );
+			default:
+				return stepDate( epoch );
+		}
+	}
+
+	private long stepDate( long epoch ) {
+
+		if( segment == -1 ) {
+			return shift( epoch );
+		}
+		long shifted;
+		switch( periodUnit )
+		{
+			case 'D':
+				shifted = CivilTime.plusDays( local, amount );
+				break;
+			case 'M':
+				shifted = CivilTime.plusMonths( local, amount );
+				break;
+			default:
+				shifted = CivilTime.plusYears( local, amount );
+				break;
+		}
+		if( shifted == CivilTime.OUT_OF_RANGE ) {
+			return shift( epoch );
+		}
+		if( shifted >= segmentStart && shifted < segmentEnd ) {
+			local = shifted;
+			return shifted - offset;
+		}
+		int found = table.segmentOf( shifted );
+		if( found >= 0 ) {
+			setSegment( found );
+			local = shifted;
+			return shifted - offset;
+		}
+		// in a gap or an overlap, the previous offset is preferred
+		long output = table.toEpoch( shifted, offset );
+		if( output == CivilTime.OUT_OF_RANGE ) {
+			return shift( epoch );
+		}
+		locate( output );
+		return output;
+	}
+
+	// step through shiftFromPeriod, then look the result up again
+	private long shift( long epoch ) {
+
+		long output = EpochTool.callUnchecked( () -> EpochTool.shiftFromPeriod( epoch, direction, period, periodUnit, zoneId, false ) );
+		locate( output );
+		return output;
+	}
+
+	private void locate( long epoch ) {
+
+		segment = -1;
+		local = table.toLocal( epoch );
+		if( local == CivilTime.OUT_OF_RANGE ) {
+			return;
+		}
+		int found = table.segmentOf( local );
+		if( found >= 0 ) {
+			setSegment( found );
+		}
+	}
+
+	private void setSegment( int found ) {
+
+		segment = found;
+		segmentStart = table.segmentStart( found );
+		segmentEnd = table.segmentEnd( found );
+		offset = table.segmentOffset( found );
+	}
+}
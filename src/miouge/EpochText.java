@@ -0,0 +1,81 @@
+package miouge;
+
+import java.time.ZoneId;
+
+/**
+ * Last text written by {@link EpochTool#formatTo} on each thread, kept for
+ * the minute it was computed in: another epoch of the same minute, in the
+ * same format and zone, only rewrites the two digits of its seconds.
+ * <p>
+ * As for {@link EpochBucket}, a minute is kept only when its local times
+ * lie in a single segment of the {@link ZoneTable}.
+ */
+final class EpochText {
+
+	private static final ThreadLocal<EpochText> perThread = new ThreadLocal<EpochText>() {
+		@Override
+		protected EpochText initialValue() {
+			return new EpochText();
+		}
+	};
+
+	private EpochTool.Format format;
+	private ZoneId zoneId;
+
+	// epochs of the cached minute, the end excluded
+	private long start;
+	private long end;
+
+	final char[] text = new char[32];
+	int length;
+
+	private EpochText() {
+	}
+
+	// text of an epoch in text[0, length), null when the format has no layout or the year does not fit it
+	static EpochText of( long epoch, EpochTool.Format format, ZoneId zoneId ) {
+
+		EpochText cached = perThread.get();
+		if( epoch >= cached.start && epoch < cached.end && format == cached.format && ( zoneId == cached.zoneId || zoneId.equals( cached.zoneId ) ) ) {
+			int second = format.layout.secondIndex();
+			if( second >= 0 ) {
+				FixedLayout.write( (int)( epoch - cached.start ), cached.text, second );
+			}
+			return cached;
+		}
+		return cached.compute( epoch, format, zoneId ) ? cached : null;
+	}
+
+	private boolean compute( long epoch, EpochTool.Format format, ZoneId zoneId ) {
+
+		FixedLayout layout = format.layout;
+		if( layout == null ) {
+			return false;
+		}
+		ZoneTable table = ZoneTable.of( zoneId );
+		long local = table.toLocal( epoch );
+		if( local == CivilTime.OUT_OF_RANGE ) {
+			return false;
+		}
+
+		// the text is about to be rewritten, the cached minute goes first
+		this.format = null;
+		this.start = 0;
+		this.end = 0;
+		if( !layout.format( local, text, 0 ) ) {
+			return false;
+		}
+		this.length = layout.length();
+
+		long minute = Math.floorDiv( local, 60 ) * 60;
+		int segment = table.segmentOf( minute );
+		if( segment >= 0 && minute + 60 <= table.segmentEnd( segment ) ) {
+			int offset = table.segmentOffset( segment );
+			this.format = format;
+			this.zoneId = zoneId;
+			this.start = minute - offset;
+			this.end = minute + 60 - offset;
+		}
+		return true;
+	}
+}
@@ -1,13 +1,29 @@
 package miouge;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAdjuster;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Random;
 import java.util.SimpleTimeZone;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 public class EpochTool {
 
@@ -30,8 +46,25 @@ public class EpochTool {
 
 		private String name = "";
 
+		// formatter of the pattern, built for the default locale of that time
+		private volatile DateTimeFormatter formatter;
+
+		// digit by digit parser and printer of the pattern, null when it has text fields
+		final FixedLayout layout;
+
 		Format( String name ) {
 			this.name = name;
+			this.formatter = DateTimeFormatter.ofPattern( name );
+			this.layout = FixedLayout.of( name );
+		}
+
+		public DateTimeFormatter getFormatter() {
+
+			DateTimeFormatter f = formatter;
+			if( !f.getLocale().equals( Locale.getDefault( Locale.Category.FORMAT ) ) ) {
+				formatter = f = DateTimeFormatter.ofPattern( name );
+			}
+			return f;
 		}
 
 		public String toString() {
@@ -47,29 +80,134 @@ public class EpochTool {
 	public enum Span {
 		Seconds, Minutes, Hours, Days;
 	}
+
+	// field of the civil date-time packed in a long by toCivilFields
+	public enum CivilField {
+
+		YEAR( 29, 35 ),
+		MONTH( 25, 4 ),
+		DAY_OF_MONTH( 20, 5 ),
+		HOUR( 15, 5 ),
+		MINUTE( 9, 6 ),
+		SECOND( 3, 6 ),
+		DAY_OF_WEEK( 0, 3 ); // 1 for Monday to 7 for Sunday
+
+		private final int shift;
+		private final long mask;
+
+		CivilField( int shift, int bits ) {
+			this.shift = shift;
+			this.mask = ( 1L << bits ) - 1;
+		}
+
+		public int get( long civilFields ) {
+
+			if( this == YEAR ) {
+				return (int)( civilFields >> shift );
+			}
+			return (int)( ( civilFields >>> shift ) & mask );
+		}
+
+		long pack( long value ) {
+			return ( value & mask ) << shift;
+		}
+	}
 	
+	public static final ZoneId UTC = ZoneId.of( "UTC" );
+
+	// years whose zone offset transitions are cached, outside of them java.time resolves the offsets
+	public static void setTransitionYears( int firstYear, int lastYear ) {
+
+		ZoneTable.setYears( firstYear, lastYear );
+	}
+
+	//------------------------ Formatters ------------------------------------------
+
+	private final static BoundedCache<String, DateTimeFormatter> customFormatters = new BoundedCache<String, DateTimeFormatter>( 256 );
+
+	// compiled custom pattern, for the current default locale
+	static DateTimeFormatter getFormatter( String customFormat ) {
+
+		DateTimeFormatter formatter = customFormatters.get( customFormat );
+		if( formatter == null || !formatter.getLocale().equals( Locale.getDefault( Locale.Category.FORMAT ) ) ) {
+			formatter = DateTimeFormatter.ofPattern( customFormat );
+			customFormatters.put( customFormat, formatter );
+		}
+		return formatter;
+	}
+
 	//------------------------ UTC calendar -----------------------------------------
 	
-	private final static Calendar utcCalendar = Calendar.getInstance();
-	
-	// static initialization
-	static {
+	private final static Calendar utcCalendar = newUtcCalendar();
+
+	// calendar of each thread, set up as the shared one
+	private final static ThreadLocal<Calendar> threadUtcCalendar = new ThreadLocal<Calendar>() {
+		@Override
+		protected Calendar initialValue() {
+			return newUtcCalendar();
+		}
+	};
+
+	private static Calendar newUtcCalendar() {
 
-		utcCalendar.setTimeZone( new SimpleTimeZone(0, "UTC") );
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeZone( new SimpleTimeZone(0, "UTC") );
+		return calendar;
 	}
 
+	// shared by all threads, see getThreadUtcCalendar() for concurrent use
 	public static Calendar getUtcCalendar() {
 		
 		return utcCalendar;
 	}	
+
+	// UTC calendar owned by the calling thread, not to be handed to other threads
+	public static Calendar getThreadUtcCalendar() {
+
+		return threadUtcCalendar.get();
+	}
+
+	// the calendar of the calling thread set to an epoch
+	public static Calendar getThreadUtcCalendar( long epoch ) {
+
+		Calendar calendar = threadUtcCalendar.get();
+		calendar.setTimeInMillis( epoch * 1000 );
+		return calendar;
+	}
 	
 	//--------------------------------------------------------------------------
 	
 	public static Long getNowEpoch() {
 				
-		Instant instant = Instant.now();
-		return instant.getEpochSecond();
+		return getNowSeconds();
 	}	
+
+	// current epoch second, from the coarse clock when it runs
+	public static long getNowSeconds() {
+
+		long now = CoarseClock.now;
+		if( now != CoarseClock.STOPPED ) {
+			return now;
+		}
+		return Instant.now().getEpochSecond();
+	}
+
+	// coarse mode: getNowSeconds() reads a second refreshed every intervalMillis by a daemon thread
+	public static void useCoarseClock( long intervalMillis ) {
+
+		CoarseClock.start( intervalMillis );
+	}
+
+	// precise mode, the default: getNowSeconds() reads the system clock
+	public static void usePreciseClock() {
+
+		CoarseClock.stop();
+	}
+
+	public static boolean isCoarseClock() {
+
+		return CoarseClock.now != CoarseClock.STOPPED;
+	}
 		
 	//-------------------------------- String -> Epoch -------------------------
 
@@ -81,16 +219,13 @@ public class EpochTool {
 		
 		ZoneId zoneIdUsed = null;
 		if( zoneId == null ) {
-			zoneIdUsed = ZoneId.of( "UTC" );
+			zoneIdUsed = UTC;
 		}
 		else {
 			zoneIdUsed = zoneId;
 		}
 
-		DateTimeFormatter formatter = DateTimeFormatter.ofPattern( format.toString() );
-		LocalDateTime ldt = LocalDateTime.parse( date, formatter );
-		ZonedDateTime zdt = ZonedDateTime.of( ldt, zoneIdUsed );
-		return zdt.toEpochSecond();
+		return parse( date, format, zoneIdUsed, ZoneTable.of( zoneIdUsed ) );
 	}
 
 
@@ -102,13 +237,13 @@ public class EpochTool {
 		
 		ZoneId zoneIdUsed = null;
 		if( zoneId == null ) {
-			zoneIdUsed = ZoneId.of( "UTC" );
+			zoneIdUsed = UTC;
 		}
 		else {
 			zoneIdUsed = zoneId;
 		}
 
-		DateTimeFormatter formatter = DateTimeFormatter.ofPattern( customFormat );
+		DateTimeFormatter formatter = getFormatter( customFormat );
 		LocalDateTime ldt = LocalDateTime.parse( date, formatter );
 		ZonedDateTime zdt = ZonedDateTime.of( ldt, zoneIdUsed );
 		return zdt.toEpochSecond();
@@ -128,17 +263,17 @@ public class EpochTool {
 
 	public static String convertToString( Long epoch, Format format ) throws IllegalArgumentException {
 
-		return convertToString( epoch, ZoneId.of( "UTC" ), format );
+		return convertToString( epoch, UTC, format );
 	}
 
 	public static String convertToString( Long epoch, DateTimeFormatter format ) throws IllegalArgumentException {
 
-		return convertToString( epoch, ZoneId.of( "UTC" ), format );
+		return convertToString( epoch, UTC, format );
 	}
 
 	public static String convertToString( Long epoch, String customFormat ) throws IllegalArgumentException {
 
-		return convertToString( epoch, ZoneId.of( "UTC" ), customFormat );
+		return convertToString( epoch, UTC, customFormat );
 	}
 
 	public static String convertToString( Long epoch, ZoneId zoneId, DateTimeFormatter format ) throws IllegalArgumentException {
@@ -149,7 +284,7 @@ public class EpochTool {
 		
 		ZoneId zoneIdUsed = null;
 		if( zoneId == null ) {
-			zoneIdUsed = ZoneId.of( "UTC" );
+			zoneIdUsed = UTC;
 		}
 		else {
 			zoneIdUsed = zoneId;
@@ -167,14 +302,14 @@ public class EpochTool {
 		
 		ZoneId zoneIdUsed = null;
 		if( zoneId == null ) {
-			zoneIdUsed = ZoneId.of( "UTC" );
+			zoneIdUsed = UTC;
 		}
 		else {
 			zoneIdUsed = zoneId;
 		}
 
 		ZonedDateTime zdt = epochToZonedDate( epoch, zoneIdUsed );
-		DateTimeFormatter formatter = DateTimeFormatter.ofPattern( format.toString() );
+		DateTimeFormatter formatter = format.getFormatter();
 		return zdt.format( formatter );
 	}
 
@@ -186,14 +321,14 @@ public class EpochTool {
 		
 		ZoneId zoneIdUsed = null;
 		if( zoneId == null ) {
-			zoneIdUsed = ZoneId.of( "UTC" );
+			zoneIdUsed = UTC;
 		}
 		else {
 			zoneIdUsed = zoneId;
 		}
 
 		ZonedDateTime zdt = epochToZonedDate( epoch, zoneIdUsed );
-		DateTimeFormatter formatter = DateTimeFormatter.ofPattern( customFormat );
+		DateTimeFormatter formatter = getFormatter( customFormat );
 		return zdt.format( formatter );
 	}
 
@@ -205,7 +340,7 @@ public class EpochTool {
 
 		ZoneId zoneIdUsed = null;
 		if( zoneId == null ) {
-			zoneIdUsed = ZoneId.of( "UTC" );
+			zoneIdUsed = UTC;
 		}
 		else {
 			zoneIdUsed = zoneId;
@@ -221,29 +356,69 @@ public class EpochTool {
 			return null;
 		}
 		
-		Instant i = Instant.ofEpochSecond( epoch );
 		ZoneId zoneId = ZoneId.systemDefault();
-		ZonedDateTime zdt = ZonedDateTime.ofInstant( i, zoneId );
+		long fields = toCivilFields( epoch, zoneId, ZoneTable.of( zoneId ) );
 	
-		int year = zdt.getYear();
-		int month = zdt.getMonthValue();
-		int dayOfMonth = zdt.getDayOfMonth();
-		int hour = zdt.getHour();
-		int minute = zdt.getMinute();
-		
 		switch( internationalStandard ) {
 		case "year":
-			return year;
+			return CivilField.YEAR.get( fields );
 		case "month":
-			return month;
+			return CivilField.MONTH.get( fields );
 		case "dayOfMonth":
-			return dayOfMonth;
+			return CivilField.DAY_OF_MONTH.get( fields );
 		case "hour":
-			return hour;
+			return CivilField.HOUR.get( fields );
 		case "minute":
-			return minute;
+			return CivilField.MINUTE.get( fields );
+		}
+		return CivilField.YEAR.get( fields );
+	}
+
+	// all civil fields of an epoch in a zone from one conversion, read with CivilField.get
+	public static long toCivilFields( long epoch, ZoneId zoneId ) {
+
+		if( epoch == NULL_EPOCH ) {
+			return NULL_EPOCH;
 		}
-		return year;
+		ZoneId zoneIdUsed = zoneId == null ? UTC : zoneId;
+		return toCivilFields( epoch, zoneIdUsed, ZoneTable.of( zoneIdUsed ) );
+	}
+
+	public static void toCivilFields( long[] in, ZoneId zoneId, long[] out ) {
+
+		checkLengths( in.length, out.length );
+		ZoneId zoneIdUsed = zoneId == null ? UTC : zoneId;
+		ZoneTable table = ZoneTable.of( zoneIdUsed );
+
+		for( int i = 0; i < in.length; i++ ) {
+			out[i] = in[i] == NULL_EPOCH ? NULL_EPOCH : toCivilFields( in[i], zoneIdUsed, table );
+		}
+	}
+
+	// one field, when only one is needed
+	public static int getCivilField( long epoch, CivilField field, ZoneId zoneId ) {
+
+		return field.get( toCivilFields( epoch, zoneId ) );
+	}
+
+	private static long toCivilFields( long epoch, ZoneId zoneId, ZoneTable table ) {
+
+		long local = table.toLocal( epoch );
+		if( local == CivilTime.OUT_OF_RANGE ) {
+			// out of the table, java.time gives the local time or throws
+			local = ZonedDateTime.ofInstant( Instant.ofEpochSecond( epoch ), zoneId ).toLocalDateTime().toEpochSecond( ZoneOffset.UTC );
+		}
+		long days = Math.floorDiv( local, CivilTime.SECONDS_PER_DAY );
+		long date = CivilTime.civilFromDays( days );
+		int secondOfDay = (int)( local - days * CivilTime.SECONDS_PER_DAY );
+
+		return CivilField.YEAR.pack( CivilTime.year( date ) )
+				| CivilField.MONTH.pack( CivilTime.month( date ) )
+				| CivilField.DAY_OF_MONTH.pack( CivilTime.day( date ) )
+				| CivilField.HOUR.pack( secondOfDay / 3600 )
+				| CivilField.MINUTE.pack( secondOfDay / 60 % 60 )
+				| CivilField.SECOND.pack( secondOfDay % 60 )
+				| CivilField.DAY_OF_WEEK.pack( Math.floorMod( days + 3, 7 ) + 1 );
 	}
 
 	public static Long adjust( Long epoch, Integer year, Integer month, Integer day, Integer hour, Integer minute, Integer second, ZoneId zoneId, Boolean verbose ) throws Exception {
@@ -254,7 +429,7 @@ public class EpochTool {
 
 		ZoneId zoneIdUsed = null;
 		if( zoneId == null ) {
-			zoneIdUsed = ZoneId.of( "UTC" );
+			zoneIdUsed = UTC;
 		}
 		else {
 			zoneIdUsed = zoneId;
@@ -265,6 +440,48 @@ public class EpochTool {
 			System.out.print(String.format( "adjust (%d) %s [%s] ->", epoch, convertToString( epoch, zoneIdUsed, Format.STD_SLASH_FULL ), zoneIdUsed.getId() ));
 		}
 
+		Long output = adjustCivil( epoch, year, month, day, hour, minute, second, zoneIdUsed );
+
+		if( output == null ) {
+			output = adjustZoned( epoch, year, month, day, hour, minute, second, zoneIdUsed );
+		}
+
+		if( verbose == true ) {
+
+			System.out.print(String.format( " (%d) %s [%s]", epoch, convertToString( output, zoneIdUsed, Format.STD_SLASH_FULL ), zoneIdUsed.getId() ));
+
+		}
+		return output;
+	}
+
+	// integer arithmetic on the offsets of the zone, null when java.time must decide
+	private static Long adjustCivil( long epoch, Integer year, Integer month, Integer day, Integer hour, Integer minute, Integer second, ZoneId zoneId ) {
+
+		ZoneTable table = ZoneTable.of( zoneId );
+		long local = table.toLocal( epoch );
+		if( local == CivilTime.OUT_OF_RANGE ) {
+			return null;
+		}
+		long days = Math.floorDiv( local, CivilTime.SECONDS_PER_DAY );
+		long date = CivilTime.civilFromDays( days );
+		int secondOfDay = (int)( local - days * CivilTime.SECONDS_PER_DAY );
+
+		long adjusted = CivilTime.ofFields(
+				year != null ? year : CivilTime.year( date ),
+				month != null ? month : CivilTime.month( date ),
+				day != null ? day : CivilTime.day( date ),
+				hour != null ? hour : secondOfDay / 3600,
+				minute != null ? minute : secondOfDay / 60 % 60,
+				second != null ? second : secondOfDay % 60 );
+		long output = table.toEpoch( adjusted, ZoneTable.NO_PREFERENCE );
+		if( output == CivilTime.OUT_OF_RANGE ) {
+			return null;
+		}
+		return output;
+	}
+
+	private static Long adjustZoned( Long epoch, Integer year, Integer month, Integer day, Integer hour, Integer minute, Integer second, ZoneId zoneIdUsed ) {
+
 		Instant i = Instant.ofEpochSecond( epoch );
 		ZonedDateTime zdt = ZonedDateTime.ofInstant( i, zoneIdUsed );
 
@@ -298,14 +515,7 @@ public class EpochTool {
 
 		zdt = ZonedDateTime.of( lt, zoneIdUsed );
 
-		Long output = zdt.toEpochSecond();
-
-		if( verbose == true ) {
-
-			System.out.print(String.format( " (%d) %s [%s]", epoch, convertToString( output, zoneIdUsed, Format.STD_SLASH_FULL ), zoneIdUsed.getId() ));
-
-		}
-		return output;
+		return zdt.toEpochSecond();
 	}
 
 	public static Long adjustWith( Long epoch, TemporalAdjuster adjuster, ZoneId zoneId, Boolean verbose ) {
@@ -316,7 +526,7 @@ public class EpochTool {
 
 		ZoneId zoneIdUsed = null;
 		if( zoneId == null ) {
-			zoneIdUsed = ZoneId.of( "UTC" );
+			zoneIdUsed = UTC;
 		}
 		else {
 			zoneIdUsed = zoneId;
@@ -354,7 +564,7 @@ public class EpochTool {
 		ZoneId zoneIdUsed = null;
 
 		if( zoneId == null ) {
-			zoneIdUsed = ZoneId.of( "UTC" );
+			zoneIdUsed = UTC;
 		}
 		else {
 			zoneIdUsed = zoneId;
@@ -373,7 +583,7 @@ public class EpochTool {
 
 		ZoneId zoneIdUsed = null;
 		if( zoneId == null ) {
-			zoneIdUsed = ZoneId.of( "UTC" );
+			zoneIdUsed = UTC;
 		}
 		else {
 			zoneIdUsed = zoneId;
@@ -384,6 +594,33 @@ public class EpochTool {
 			System.out.print(String.format( "add input  (%d) %s [%s]", epoch, convertToString( epoch, zoneId, Format.STD_SLASH_FULL ), zoneId.getId() ));
 		}
 
+		Long output = addCivil( epoch, years, months, days, hours, minutes, seconds, zoneIdUsed );
+
+		if( output == null ) {
+			output = addZoned( epoch, years, months, days, hours, minutes, seconds, zoneIdUsed );
+		}
+
+		if( verbose == true ) {
+
+			System.out.print(String.format( "add output (%d) %s [%s]", epoch, convertToString( output, zoneId, Format.STD_SLASH_FULL ), zoneId.getId() ));
+
+		}
+		return output;
+	}
+
+	// integer arithmetic on the offsets of the zone, null when java.time must decide
+	private static Long addCivil( long epoch, Integer years, Integer months, Integer days, Integer hours, Integer minutes, Integer seconds, ZoneId zoneId ) {
+
+		long output = ZoneTable.of( zoneId ).add( epoch, years != null ? years : 0, months != null ? months : 0, days != null ? days : 0,
+				hours != null ? hours : 0, minutes != null ? minutes : 0, seconds != null ? seconds : 0 );
+		if( output == CivilTime.OUT_OF_RANGE ) {
+			return null;
+		}
+		return output;
+	}
+
+	private static Long addZoned( Long epoch, Integer years, Integer months, Integer days, Integer hours, Integer minutes, Integer seconds, ZoneId zoneIdUsed ) {
+
 		Instant i = Instant.ofEpochSecond( epoch );
 		ZonedDateTime zdt = ZonedDateTime.ofInstant( i, zoneIdUsed );
 
@@ -406,14 +643,7 @@ public class EpochTool {
 			zdt = zdt.plusSeconds( seconds );
 		}
 
-		Long output = zdt.toEpochSecond();
-
-		if( verbose == true ) {
-
-			System.out.print(String.format( "add output (%d) %s [%s]", epoch, convertToString( output, zoneId, Format.STD_SLASH_FULL ), zoneId.getId() ));
-
-		}
-		return output;
+		return zdt.toEpochSecond();
 	}
 
 	public static Long shiftFromPeriod( Long dataEpoch, Direction direction, Long period, char periodUnit, ZoneId periodZoneId, Boolean verbose ) throws Exception {
@@ -426,7 +656,7 @@ public class EpochTool {
 
 		ZoneId zoneIdUsed = null;
 		if( periodZoneId == null ) {
-			zoneIdUsed = ZoneId.of( "UTC" );
+			zoneIdUsed = UTC;
 		}
 		else {
 			zoneIdUsed = periodZoneId;
@@ -437,6 +667,24 @@ public class EpochTool {
 			System.out.print(String.format( "shiftByPeriod (%d%c) input  (%d) %s [%s]", period, periodUnit, dataEpoch, convertToString( dataEpoch, zoneIdUsed, Format.STD_SLASH_FULL ), zoneIdUsed.getId() ));
 		}
 
+		output = shiftCivil( dataEpoch, direction, period, periodUnit, zoneIdUsed );
+
+		if( output == null ) {
+			output = shiftZoned( dataEpoch, direction, period, periodUnit, zoneIdUsed );
+		}
+
+		if( verbose == true ) {
+
+			System.out.print(String.format( "shiftByPeriod (%d%c) output (%d) %s [%s]", period, periodUnit, output, convertToString( output, zoneIdUsed, Format.STD_SLASH_FULL ), zoneIdUsed.getId() ));
+		}
+
+		return output;
+	}
+
+	private static Long shiftZoned( Long dataEpoch, Direction direction, Long period, char periodUnit, ZoneId zoneIdUsed ) throws Exception {
+
+		Long output = null;
+
 		switch( periodUnit )
 		{
 			case 's': {
@@ -516,12 +764,520 @@ public class EpochTool {
 			}
 		}
 
-		if( verbose == true ) {
+		return output;
+	}
 
-			System.out.print(String.format( "shiftByPeriod (%d%c) output (%d) %s [%s]", period, periodUnit, output, convertToString( output, zoneIdUsed, Format.STD_SLASH_FULL ), zoneIdUsed.getId() ));
+	// integer arithmetic on the offsets of the zone, null when java.time must decide
+	private static Long shiftCivil( long dataEpoch, Direction direction, Long period, char periodUnit, ZoneId zoneId ) {
+
+		if( period == null ) {
+			return null;
 		}
 
+		long amount = direction == Direction.forward ? period : -period;
+		long output = ZoneTable.of( zoneId ).shift( dataEpoch, amount, periodUnit );
+		if( output == CivilTime.OUT_OF_RANGE ) {
+			return null;
+		}
 		return output;
 	}
 
+	//-------------------------------- Primitive --------------------------------
+
+	// stands for a missing epoch in primitive longs and arrays
+	public static final long NULL_EPOCH = Long.MIN_VALUE;
+
+	public static long convertToEpoch( CharSequence date, Format format, ZoneId zoneId, long nullEpoch ) {
+
+		if( date == null ) {
+			return nullEpoch;
+		}
+
+		ZoneId zoneIdUsed = zoneId == null ? UTC : zoneId;
+		return parse( date, format, zoneIdUsed, ZoneTable.of( zoneIdUsed ) );
+	}
+
+	// date as length bytes of ASCII or UTF-8 text, as read from a file
+	public static long convertToEpoch( byte[] date, int offset, int length, Format format, ZoneId zoneId, long nullEpoch ) {
+
+		if( date == null ) {
+			return nullEpoch;
+		}
+
+		ZoneId zoneIdUsed = zoneId == null ? UTC : zoneId;
+		ZoneTable table = ZoneTable.of( zoneIdUsed );
+
+		if( format.layout != null ) {
+			long local = format.layout.parse( date, offset, length );
+			if( local != CivilTime.OUT_OF_RANGE ) {
+				return fromLocal( local, zoneIdUsed, table );
+			}
+		}
+		String text = new String( date, offset, length, StandardCharsets.UTF_8 );
+		return toEpoch( LocalDateTime.parse( text, format.getFormatter() ), zoneIdUsed, table );
+	}
+
+	public static void convertToEpoch( CharSequence[] in, Format format, ZoneId zoneId, long[] out ) {
+
+		checkLengths( in.length, out.length );
+		ZoneId zoneIdUsed = zoneId == null ? UTC : zoneId;
+		ZoneTable table = ZoneTable.of( zoneIdUsed );
+
+		for( int i = 0; i < in.length; i++ ) {
+			out[i] = in[i] == null ? NULL_EPOCH : parse( in[i], format, zoneIdUsed, table );
+		}
+	}
+
+	public static String convertToString( long epoch, ZoneId zoneId, Format format ) {
+
+		if( epoch == NULL_EPOCH ) {
+			return null;
+		}
+		ZoneId zoneIdUsed = zoneId == null ? UTC : zoneId;
+		EpochText text = EpochText.of( epoch, format, zoneIdUsed );
+		if( text != null ) {
+			return new String( text.text, 0, text.length );
+		}
+		return convertToString( Long.valueOf( epoch ), zoneIdUsed, format );
+	}
+
+	public static void convertToString( long[] in, ZoneId zoneId, Format format, String[] out ) {
+
+		checkLengths( in.length, out.length );
+		ZoneId zoneIdUsed = zoneId == null ? UTC : zoneId;
+
+		for( int i = 0; i < in.length; i++ ) {
+			out[i] = convertToString( in[i], zoneIdUsed, format );
+		}
+	}
+
+	public static long add( long epoch, int years, int months, int days, int hours, int minutes, int seconds, ZoneId zoneId ) {
+
+		if( epoch == NULL_EPOCH ) {
+			return NULL_EPOCH;
+		}
+
+		ZoneId zoneIdUsed = zoneId == null ? UTC : zoneId;
+		return add( epoch, years, months, days, hours, minutes, seconds, zoneIdUsed, ZoneTable.of( zoneIdUsed ) );
+	}
+
+	// out may be in
+	public static void add( long[] in, int years, int months, int days, int hours, int minutes, int seconds, ZoneId zoneId, long[] out ) {
+
+		checkLengths( in.length, out.length );
+		ZoneId zoneIdUsed = zoneId == null ? UTC : zoneId;
+		ZoneTable table = ZoneTable.of( zoneIdUsed );
+
+		for( int i = 0; i < in.length; i++ ) {
+			out[i] = in[i] == NULL_EPOCH ? NULL_EPOCH : add( in[i], years, months, days, hours, minutes, seconds, zoneIdUsed, table );
+		}
+	}
+
+	public static long shiftFromPeriod( long dataEpoch, Direction direction, long period, char periodUnit, ZoneId periodZoneId ) throws Exception {
+
+		if( dataEpoch == NULL_EPOCH ) {
+			return NULL_EPOCH;
+		}
+
+		ZoneId zoneIdUsed = periodZoneId == null ? UTC : periodZoneId;
+		return shift( dataEpoch, direction, period, periodUnit, zoneIdUsed, ZoneTable.of( zoneIdUsed ) );
+	}
+
+	// out may be in
+	public static void shiftFromPeriod( long[] in, Direction direction, long period, char periodUnit, ZoneId periodZoneId, long[] out ) throws Exception {
+
+		checkLengths( in.length, out.length );
+		ZoneId zoneIdUsed = periodZoneId == null ? UTC : periodZoneId;
+		ZoneTable table = ZoneTable.of( zoneIdUsed );
+
+		for( int i = 0; i < in.length; i++ ) {
+			out[i] = in[i] == NULL_EPOCH ? NULL_EPOCH : shift( in[i], direction, period, periodUnit, zoneIdUsed, table );
+		}
+	}
+
+	//-------------------------------- Formatting ------------------------------
+
+	// writes convertToString( epoch, zoneId, format ), nothing for NULL_EPOCH
+	public static void formatTo( long epoch, Format format, ZoneId zoneId, StringBuilder out ) {
+
+		if( epoch == NULL_EPOCH ) {
+			return;
+		}
+		ZoneId zoneIdUsed = zoneId == null ? UTC : zoneId;
+		EpochText text = EpochText.of( epoch, format, zoneIdUsed );
+		if( text != null ) {
+			out.append( text.text, 0, text.length );
+		}
+		else {
+			format.getFormatter().formatTo( epochToZonedDate( epoch, zoneIdUsed ), out );
+		}
+	}
+
+	public static void formatTo( long epoch, Format format, ZoneId zoneId, Appendable out ) throws IOException {
+
+		if( epoch == NULL_EPOCH ) {
+			return;
+		}
+		ZoneId zoneIdUsed = zoneId == null ? UTC : zoneId;
+		EpochText text = EpochText.of( epoch, format, zoneIdUsed );
+		if( text == null ) {
+			format.getFormatter().formatTo( epochToZonedDate( epoch, zoneIdUsed ), out );
+		}
+		else if( out instanceof Writer ) {
+			( (Writer)out ).write( text.text, 0, text.length );
+		}
+		else {
+			for( int i = 0; i < text.length; i++ ) {
+				out.append( text.text[i] );
+			}
+		}
+	}
+
+	// writes at out[offset], returns the number of chars written
+	public static int formatTo( long epoch, Format format, ZoneId zoneId, char[] out, int offset ) {
+
+		if( epoch == NULL_EPOCH ) {
+			return 0;
+		}
+		ZoneId zoneIdUsed = zoneId == null ? UTC : zoneId;
+		EpochText text = EpochText.of( epoch, format, zoneIdUsed );
+		if( text != null ) {
+			System.arraycopy( text.text, 0, out, offset, text.length );
+			return text.length;
+		}
+		String s = epochToZonedDate( epoch, zoneIdUsed ).format( format.getFormatter() );
+		s.getChars( 0, s.length(), out, offset );
+		return s.length();
+	}
+
+	//-------------------------------- Series ----------------------------------
+
+	// epochs from startEpoch, each one shifted from the previous as shiftFromPeriod does, until endEpoch (excluded)
+	public static PrimitiveIterator.OfLong series( long startEpoch, long endEpoch, Direction direction, long period, char periodUnit, ZoneId periodZoneId ) {
+
+		ZoneId zoneIdUsed = periodZoneId == null ? UTC : periodZoneId;
+		return new EpochSeries( startEpoch, endEpoch, direction, period, periodUnit, zoneIdUsed );
+	}
+
+	public static LongStream seriesStream( long startEpoch, long endEpoch, Direction direction, long period, char periodUnit, ZoneId periodZoneId ) {
+
+		PrimitiveIterator.OfLong iterator = series( startEpoch, endEpoch, direction, period, periodUnit, periodZoneId );
+		int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+		return StreamSupport.longStream( Spliterators.spliteratorUnknownSize( iterator, characteristics ), false );
+	}
+
+	// fills out with the first epochs of the series, returns their count
+	public static int fillSeries( long startEpoch, long endEpoch, Direction direction, long period, char periodUnit, ZoneId periodZoneId, long[] out ) {
+
+		ZoneId zoneIdUsed = periodZoneId == null ? UTC : periodZoneId;
+		return new EpochSeries( startEpoch, endEpoch, direction, period, periodUnit, zoneIdUsed ).fill( out, 0 );
+	}
+
+	//-------------------------------- Truncation ------------------------------
+
+	// start of the hour, day, month or year ('H', 'D', 'M', 'A' or 'T') of an epoch, as adjust with the lower fields set to their minimum
+	public static long truncate( long epoch, char periodUnit, ZoneId zoneId ) {
+
+		if( epoch == NULL_EPOCH ) {
+			return NULL_EPOCH;
+		}
+		return EpochBucket.truncate( epoch, periodUnit, zoneId == null ? UTC : zoneId );
+	}
+
+	// out may be in
+	public static void truncate( long[] in, char periodUnit, ZoneId zoneId, long[] out ) {
+
+		checkLengths( in.length, out.length );
+		ZoneId zoneIdUsed = zoneId == null ? UTC : zoneId;
+
+		for( int i = 0; i < in.length; i++ ) {
+			out[i] = in[i] == NULL_EPOCH ? NULL_EPOCH : EpochBucket.truncate( in[i], periodUnit, zoneIdUsed );
+		}
+	}
+
+	// the canonical text of a layout is read digit by digit, anything else by the formatter
+	private static long parse( CharSequence date, Format format, ZoneId zoneId, ZoneTable table ) {
+
+		if( format.layout != null ) {
+			long local = format.layout.parse( date );
+			if( local != CivilTime.OUT_OF_RANGE ) {
+				return fromLocal( local, zoneId, table );
+			}
+		}
+		return toEpoch( LocalDateTime.parse( date, format.getFormatter() ), zoneId, table );
+	}
+
+	private static long fromLocal( long local, ZoneId zoneId, ZoneTable table ) {
+
+		long output = table.toEpoch( local, ZoneTable.NO_PREFERENCE );
+		if( output != CivilTime.OUT_OF_RANGE ) {
+			return output;
+		}
+		return ZonedDateTime.of( LocalDateTime.ofEpochSecond( local, 0, ZoneOffset.UTC ), zoneId ).toEpochSecond();
+	}
+
+	private static long toEpoch( LocalDateTime ldt, ZoneId zoneId, ZoneTable table ) {
+
+		long output = table.toEpoch( ldt.toEpochSecond( ZoneOffset.UTC ), ZoneTable.NO_PREFERENCE );
+		if( output != CivilTime.OUT_OF_RANGE ) {
+			return output;
+		}
+		return ZonedDateTime.of( ldt, zoneId ).toEpochSecond();
+	}
+
+	private static long add( long epoch, int years, int months, int days, int hours, int minutes, int seconds, ZoneId zoneId, ZoneTable table ) {
+
+		long output = table.add( epoch, years, months, days, hours, minutes, seconds );
+		if( output != CivilTime.OUT_OF_RANGE ) {
+			return output;
+		}
+		return addZoned( epoch, years, months, days, hours, minutes, seconds, zoneId );
+	}
+
+	private static long shift( long epoch, Direction direction, long period, char periodUnit, ZoneId zoneId, ZoneTable table ) throws Exception {
+
+		long output = table.shift( epoch, direction == Direction.forward ? period : -period, periodUnit );
+		if( output != CivilTime.OUT_OF_RANGE ) {
+			return output;
+		}
+		return shiftZoned( epoch, direction, period, periodUnit, zoneId );
+	}
+
+	// call of the API declaring throws Exception, whose failures are all runtime ones
+	interface EpochCall {
+
+		long call() throws Exception;
+	}
+
+	// for the helpers that return primitive epochs without a throws clause
+	static long callUnchecked( EpochCall call ) {
+
+		try {
+			return call.call();
+		}
+		catch( RuntimeException e ) {
+			throw e;
+		}
+		catch( Exception e ) {
+			throw new IllegalStateException( e );
+		}
+	}
+
+	private static void checkLengths( int in, int out ) {
+
+		if( out < in ) {
+			throw new IllegalArgumentException( "output array shorter than input: " + out + " < " + in );
+		}
+	}
+
+	//------------------------ Test sequence ----------------------------------------
+
+	private static final String[] calendarModes = { "shared", "synchronized", "per-thread" };
+
+	// args: largest number of threads (default 8), epochs read by each thread and calls per timing (default 200000);
+	// threads read the fields of the UTC calendars, the shared one unlocked may read them wrong, the two others must not;
+	// then the cached formatters and the clocks are timed
+	public static void main( String[] args ) throws Exception {
+
+		int maxThreads = args.length > 0 ? Integer.parseInt( args[0] ) : 8;
+		int perThread = args.length > 1 ? Integer.parseInt( args[1] ) : 200000;
+
+		checkThreadCalendars( maxThreads );
+
+		for( int threads = 1; threads <= maxThreads; threads *= 2 ) {
+			for( int mode = 0; mode < calendarModes.length; mode++ ) {
+				long[] wrongAndNanos = readCalendars( mode, threads, perThread );
+				System.out.printf( "%-12s threads %2d  wrong %8d  %5.0f ns/read%n", calendarModes[mode], threads, wrongAndNanos[0],
+						wrongAndNanos[1] / ( (double)threads * perThread ) );
+				if( wrongAndNanos[0] > 0 && mode != 0 ) {
+					throw new IllegalStateException( calendarModes[mode] + " calendar read " + wrongAndNanos[0] + " wrong fields with " + threads + " threads" );
+				}
+			}
+		}
+
+		timeCustomFormats( perThread );
+		timeClocks( 25 * perThread );
+	}
+
+	// getNowSeconds() on the system clock, then on a coarse clock ticking every 100 ms, no more than one second late
+	private static void timeClocks( int calls ) {
+
+		double[] nanos = new double[2];
+		long lag = 0;
+		long sum = 0;
+		try {
+			for( int round = 0; round < 5; round++ ) {
+				usePreciseClock();
+				long start = System.nanoTime();
+				for( int i = 0; i < calls; i++ ) {
+					sum += getNowSeconds();
+				}
+				long precise = System.nanoTime();
+				useCoarseClock( 100 );
+				long coarseStart = System.nanoTime();
+				for( int i = 0; i < calls; i++ ) {
+					long now = getNowSeconds();
+					sum += now;
+					if( ( i & 0xfff ) == 0 ) {
+						lag = Math.max( lag, Instant.now().getEpochSecond() - now );
+					}
+				}
+				long coarse = System.nanoTime();
+				nanos[0] = ( precise - start ) / (double)calls;
+				nanos[1] = ( coarse - coarseStart ) / (double)calls;
+			}
+		}
+		finally {
+			usePreciseClock();
+		}
+		if( lag > 1 || sum <= 0 ) {
+			throw new IllegalStateException( "coarse clock " + lag + " s late" );
+		}
+		System.out.printf( "getNowSeconds precise %5.1f ns  coarse %5.1f ns, at most %d s late%n", nanos[0], nanos[1], lag );
+	}
+
+	// custom patterns through the formatter cache, and compiled on each call as they were before
+	private static void timeCustomFormats( int calls ) {
+
+		String pattern = "dd.MM.yyyy HH:mm:ss";
+		String text = "21.03.2009 13:28:32";
+		ZoneId paris = ZoneId.of( "Europe/Paris" );
+		double[] nanos = new double[4];
+		long cachedSum = 0;
+		long compiledSum = 0;
+		for( int round = 0; round < 10; round++ ) {
+			cachedSum = compiledSum = 0;
+			long start = System.nanoTime();
+			for( int i = 0; i < calls; i++ ) {
+				cachedSum += convertToEpoch( text, pattern, paris );
+			}
+			long parsed = System.nanoTime();
+			for( int i = 0; i < calls; i++ ) {
+				compiledSum += ZonedDateTime.of( LocalDateTime.parse( text, DateTimeFormatter.ofPattern( pattern ) ), paris ).toEpochSecond();
+			}
+			long parsedCompiled = System.nanoTime();
+			for( int i = 0; i < calls; i++ ) {
+				cachedSum += convertToString( (long)i << 10, pattern ).length();
+			}
+			long printed = System.nanoTime();
+			for( int i = 0; i < calls; i++ ) {
+				compiledSum += epochToZonedDate( (long)i << 10, ZoneId.of( "UTC" ) ).format( DateTimeFormatter.ofPattern( pattern ) ).length();
+			}
+			long printedCompiled = System.nanoTime();
+			nanos[0] = ( parsed - start ) / (double)calls;
+			nanos[1] = ( parsedCompiled - parsed ) / (double)calls;
+			nanos[2] = ( printed - parsedCompiled ) / (double)calls;
+			nanos[3] = ( printedCompiled - printed ) / (double)calls;
+		}
+		if( cachedSum != compiledSum ) {
+			throw new IllegalStateException( "cached formatters gave " + cachedSum + ", compiled ones " + compiledSum );
+		}
+		System.out.printf( "custom parse  cached %5.0f ns  compiled per call %5.0f ns%n", nanos[0], nanos[1] );
+		System.out.printf( "custom format cached %5.0f ns  compiled per call %5.0f ns%n", nanos[2], nanos[3] );
+	}
+
+	// every thread gets its own calendar, the same one on each call
+	private static void checkThreadCalendars( int threads ) throws InterruptedException {
+
+		final Map<Calendar, Boolean> seen = Collections.synchronizedMap( new IdentityHashMap<Calendar, Boolean>() );
+		final AtomicLong failures = new AtomicLong();
+		Thread[] workers = new Thread[threads];
+		for( int t = 0; t < threads; t++ ) {
+			workers[t] = new Thread() {
+				@Override
+				public void run() {
+					Calendar calendar = getThreadUtcCalendar();
+					if( seen.put( calendar, Boolean.TRUE ) != null || calendar != getThreadUtcCalendar( 0 ) || calendar == getUtcCalendar() ) {
+						failures.incrementAndGet();
+					}
+				}
+			};
+			workers[t].start();
+		}
+		for( Thread worker : workers ) {
+			worker.join();
+		}
+		if( failures.get() > 0 ) {
+			throw new IllegalStateException( failures.get() + " threads did not get a calendar of their own" );
+		}
+	}
+
+	// fields read back wrong, and nanoseconds spent by all threads in the calendar reads alone
+	private static long[] readCalendars( final int mode, int threads, final int perThread ) throws InterruptedException {
+
+		final AtomicLong wrong = new AtomicLong();
+		final AtomicLong nanos = new AtomicLong();
+		final CountDownLatch go = new CountDownLatch( 1 );
+		Thread[] workers = new Thread[threads];
+		for( int t = 0; t < threads; t++ ) {
+			final long seed = t;
+			workers[t] = new Thread() {
+				@Override
+				public void run() {
+					Random random = new Random( seed );
+					long[] epochs = new long[perThread];
+					for( int i = 0; i < perThread; i++ ) {
+						epochs[i] = (long)( random.nextDouble() * 4e9 );
+					}
+					int[] fields = new int[3 * perThread];
+					try {
+						go.await();
+					}
+					catch( InterruptedException e ) {
+						return;
+					}
+					long start = System.nanoTime();
+					for( int i = 0; i < perThread; i++ ) {
+						readCalendar( mode, epochs[i], fields, 3 * i );
+					}
+					nanos.addAndGet( System.nanoTime() - start );
+
+					long bad = 0;
+					for( int i = 0; i < perThread; i++ ) {
+						LocalDateTime expected = LocalDateTime.ofEpochSecond( epochs[i], 0, ZoneOffset.UTC );
+						if( fields[3 * i] != expected.getYear() || fields[3 * i + 1] != expected.getDayOfMonth() || fields[3 * i + 2] != expected.getHour() ) {
+							bad++;
+						}
+					}
+					wrong.addAndGet( bad );
+				}
+			};
+			workers[t].start();
+		}
+		go.countDown();
+		for( Thread worker : workers ) {
+			worker.join();
+		}
+		return new long[] { wrong.get(), nanos.get() };
+	}
+
+	private static void readCalendar( int mode, long epoch, int[] fields, int at ) {
+
+		Calendar calendar;
+		switch( mode )
+		{
+			case 0:
+				calendar = getUtcCalendar();
+				calendar.setTimeInMillis( epoch * 1000 );
+				getCalendarFields( calendar, fields, at );
+				break;
+			case 1:
+				calendar = getUtcCalendar();
+				synchronized( calendar ) {
+					calendar.setTimeInMillis( epoch * 1000 );
+					getCalendarFields( calendar, fields, at );
+				}
+				break;
+			default:
+				getCalendarFields( getThreadUtcCalendar( epoch ), fields, at );
+				break;
+		}
+	}
+
+	private static void getCalendarFields( Calendar calendar, int[] fields, int at ) {
+
+		fields[at] = calendar.get( Calendar.YEAR );
+		fields[at + 1] = calendar.get( Calendar.DAY_OF_MONTH );
+		fields[at + 2] = calendar.get( Calendar.HOUR_OF_DAY );
+	}
 }
@@ -0,0 +1,297 @@
+package miouge;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+/**
+ * Applies a scan format to every line of a file, on several cores.
+ * <p>
+ * The file is memory-mapped by windows of at most {@link #WINDOW_SIZE}
+ * bytes, each window is cut into line-aligned chunks and the chunks are
+ * scanned by a {@link ForkJoinPool}, one {@link ByteScanner} per chunk. Lines
+ * end with <code>\n</code> or <code>\r\n</code> and are matched as UTF-8
+ * bytes; lines that are empty or do not match the format are skipped.
+ * <p>
+ * Results are gathered with a {@link Collector} receiving the
+ * {@link ScanResult} of each matching line; the per-chunk containers are
+ * combined in file order, so an ordered collector gives ordered results.
+ * {@link ScanColumns#collector(ScanPattern)} gathers the elements into
+ * primitive columns without creating an object per line.
+ */
+public final class FileScanner {
+
+	/**
+	 * Largest mapped region.
+	 */
+	static final int WINDOW_SIZE = 1 << 30;
+
+	/**
+	 * Default size of the chunks handed to the workers.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+	private final ForkJoinPool pool;
+
+	private final int chunkSize;
+
+	/**
+	 * Scanner using the common fork-join pool and the default chunk size.
+	 */
+	public FileScanner() {
+		this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param pool
+	 *            pool running the chunks
+	 * @param chunkSize
+	 *            approximate number of bytes scanned by one task
+	 */
+	public FileScanner(ForkJoinPool pool, int chunkSize) {
+		if (chunkSize < 1 || chunkSize > WINDOW_SIZE)
+			throw new IllegalArgumentException("invalid chunk size: " + chunkSize);
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @param file
+	 *            file to scan
+	 * @param pattern
+	 *            compiled format
+	 * @return the fetched elements of every matching line, in file order
+	 * @throws IOException
+	 *             the file cannot be read
+	 */
+	public List<Object[]> scan(Path file, ScanPattern pattern) throws IOException {
+		return collect(file, pattern, Collectors.mapping(ScanResult::toArray, Collectors.<Object[]> toList()));
+	}
+
+	/**
+	 * Scans a file and reduces the matching lines with a collector. The
+	 * accumulator is called with a {@link ScanResult} that is reused for the
+	 * next line: it must copy what it keeps.
+	 *
+	 * @param file
+	 *            file to scan
+	 * @param pattern
+	 *            compiled format
+	 * @param collector
+	 *            reduction of the results
+	 * @return the collector result
+	 * @throws IOException
+	 *             the file cannot be read
+	 */
+	public <A, R> R collect(Path file, ScanPattern pattern, Collector<? super ScanResult, A, R> collector)
+			throws IOException {
+		A container = collector.supplier().get();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			for (long position = 0; position < size;) {
+				MappedByteBuffer window = map(channel, position, size);
+				List<int[]> chunks = chunks(window);
+				A part = pool.invoke(new ChunkTask<A>(window, chunks, 0, chunks.size(), pattern, collector));
+				container = collector.combiner().apply(container, part);
+				position += window.limit();
+			}
+		}
+		return collector.finisher().apply(container);
+	}
+
+	/**
+	 * Streams the fetched elements of every matching line to an action.
+	 *
+	 * @param file
+	 *            file to scan
+	 * @param pattern
+	 *            compiled format
+	 * @param ordered
+	 *            <code>true</code> to receive the lines in file order, one
+	 *            call at a time; otherwise the action is called concurrently
+	 *            from the workers, as soon as a line is scanned
+	 * @param action
+	 *            receives the elements of each line
+	 * @throws IOException
+	 *             the file cannot be read
+	 */
+	public void forEach(Path file, ScanPattern pattern, boolean ordered, final Consumer<Object[]> action)
+			throws IOException {
+		if (!ordered) {
+			collect(file, pattern, Collector.<ScanResult, Void> of(() -> null, (v, r) -> action.accept(r.toArray()),
+					(l, r) -> null, Collector.Characteristics.UNORDERED));
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			for (long position = 0; position < size;) {
+				MappedByteBuffer window = map(channel, position, size);
+				List<int[]> chunks = chunks(window);
+				pool.invoke(new OrderedTask(window, chunks, pattern, action));
+				position += window.limit();
+			}
+		}
+	}
+
+	/**
+	 * Maps the next window, cut after its last complete line.
+	 */
+	private static MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+		long remaining = size - position;
+		MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(remaining, WINDOW_SIZE));
+		if (remaining > WINDOW_SIZE) {
+			int end = window.limit();
+			while (end > 0 && window.get(end - 1) != '\n')
+				--end;
+			if (end == 0)
+				throw new IOException("line longer than " + WINDOW_SIZE + " bytes at offset " + position);
+			window.limit(end);
+		}
+		return window;
+	}
+
+	/**
+	 * @return [start, end) ranges of about {@link #chunkSize} bytes, each
+	 *         ending after a line feed (or at the end of the window).
+	 */
+	private List<int[]> chunks(MappedByteBuffer window) {
+		List<int[]> chunks = new ArrayList<int[]>();
+		int limit = window.limit();
+		for (int start = 0; start < limit;) {
+			int end = (int) Math.min((long) start + chunkSize, limit);
+			while (end < limit && window.get(end - 1) != '\n')
+				++end;
+			chunks.add(new int[] { start, end });
+			start = end;
+		}
+		return chunks;
+	}
+
+	/**
+	 * Scans the lines of one chunk.
+	 */
+	private static void scanChunk(MappedByteBuffer window, int[] chunk, ScanPattern pattern, Consumer<ScanResult> sink) {
+		ByteScanner scanner = new ByteScanner();
+		ScanResult result = new ScanResult();
+		int end = chunk[1];
+		for (int start = chunk[0]; start < end;) {
+			int eol = start;
+			while (eol < end && window.get(eol) != '\n')
+				++eol;
+			int next = eol + 1;
+			if (eol > start && window.get(eol - 1) == '\r')
+				--eol;
+			scanner.reset(window, start, eol).match(pattern, result);
+			if (result.isMatch())
+				sink.accept(result);
+			start = next;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static final class ChunkTask<A> extends RecursiveTask<A> {
+
+		private final MappedByteBuffer window;
+		private final List<int[]> chunks;
+		private final int from, to;
+		private final ScanPattern pattern;
+		private final Collector<? super ScanResult, A, ?> collector;
+
+		ChunkTask(MappedByteBuffer window, List<int[]> chunks, int from, int to, ScanPattern pattern,
+				Collector<? super ScanResult, A, ?> collector) {
+			this.window = window;
+			this.chunks = chunks;
+			this.from = from;
+			this.to = to;
+			this.pattern = pattern;
+			this.collector = collector;
+		}
+
+		@Override
+		protected A compute() {
+			if (to - from <= 1) {
+				final A container = collector.supplier().get();
+				final BiConsumer<A, ? super ScanResult> accumulator = collector.accumulator();
+				if (from < to)
+					scanChunk(window, chunks.get(from), pattern, r -> accumulator.accept(container, r));
+				return container;
+			}
+			int mid = (from + to) >>> 1;
+			ChunkTask<A> left = new ChunkTask<A>(window, chunks, from, mid, pattern, collector);
+			left.fork();
+			A right = new ChunkTask<A>(window, chunks, mid, to, pattern, collector).compute();
+			return collector.combiner().apply(left.join(), right);
+		}
+	}
+
+	/**
+	 * Scans all chunks of a window in parallel, handing their lines to the
+	 * action in chunk order as soon as the preceding chunks are delivered.
+	 */
+	@SuppressWarnings("serial")
+	private static final class OrderedTask extends RecursiveTask<Void> {
+
+		private final MappedByteBuffer window;
+		private final List<int[]> chunks;
+		private final ScanPattern pattern;
+		private final Consumer<Object[]> action;
+
+		/**
+		 * scanned chunks waiting for the previous ones.
+		 */
+		private final List<List<Object[]>> pending;
+
+		/**
+		 * index of the next chunk to deliver.
+		 */
+		private int next;
+
+		OrderedTask(MappedByteBuffer window, List<int[]> chunks, ScanPattern pattern, Consumer<Object[]> action) {
+			this.window = window;
+			this.chunks = chunks;
+			this.pattern = pattern;
+			this.action = action;
+			this.pending = new ArrayList<List<Object[]>>(chunks.size());
+			for (int i = 0; i < chunks.size(); ++i)
+				pending.add(null);
+		}
+
+		@Override
+		protected Void compute() {
+			List<RecursiveTask<Void>> tasks = new ArrayList<RecursiveTask<Void>>(chunks.size());
+			for (int i = 0; i < chunks.size(); ++i) {
+				final int index = i;
+				tasks.add(new RecursiveTask<Void>() {
+					@Override
+					protected Void compute() {
+						final List<Object[]> lines = new ArrayList<Object[]>();
+						scanChunk(window, chunks.get(index), pattern, r -> lines.add(r.toArray()));
+						deliver(index, lines);
+						return null;
+					}
+				});
+			}
+			invokeAll(tasks);
+			return null;
+		}
+
+		private synchronized void deliver(int index, List<Object[]> lines) {
+			pending.set(index, lines);
+			for (; next < pending.size() && pending.get(next) != null; ++next) {
+				for (Object[] line : pending.get(next))
+					action.accept(line);
+				pending.set(next, null);
+			}
+		}
+	}
+}
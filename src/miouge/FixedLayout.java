@@ -0,0 +1,205 @@
+package miouge;
+
+/**
+ * Parser and printer of a date-time pattern made of fixed width digit
+ * fields and literal characters, such as "yyyy-MM-dd HH:mm:ss": the input
+ * is checked position by position and the fields are read or written as
+ * digits, without allocating.
+ * <p>
+ * Only canonical input of a pattern with a date and a time is accepted: exactly the pattern length, ASCII
+ * digits, and fields valid as they are (month 1-12, day within the month,
+ * hour 0-23, ...). Anything else gives {@link CivilTime#OUT_OF_RANGE}, so
+ * that callers fall back to the {@link java.time.format.DateTimeFormatter}
+ * of the pattern, which either resolves it (a day clamped to the month,
+ * 24:00, a signed year) or rejects it. Printing is limited to years 1 to
+ * 9999, which yyyy writes with 4 digits.
+ */
+final class FixedLayout {
+
+	// pattern characters, a letter standing for a digit
+	private final char[] chars;
+
+	// index of each field in the input, -1 if absent
+	private final int year;
+	private final int month;
+	private final int day;
+	private final int hour;
+	private final int minute;
+	private final int second;
+
+	private FixedLayout( char[] chars ) {
+
+		this.chars = chars;
+		String s = new String( chars );
+		this.year = s.indexOf( "yyyy" );
+		this.month = s.indexOf( "MM" );
+		this.day = s.indexOf( "dd" );
+		this.hour = s.indexOf( "HH" );
+		this.minute = s.indexOf( "mm" );
+		this.second = s.indexOf( "ss" );
+	}
+
+	// layout of a DateTimeFormatter pattern, null if it has fields of variable width or text
+	static FixedLayout of( String pattern ) {
+
+		StringBuilder chars = new StringBuilder();
+		boolean quoted = false;
+
+		for( int i = 0; i < pattern.length(); i++ ) {
+
+			char c = pattern.charAt( i );
+			if( c == '\'' ) {
+				quoted = !quoted;
+			}
+			else if( quoted || !Character.isLetter( c ) || "yMdHms".indexOf( c ) >= 0 ) {
+				chars.append( c );
+			}
+			else {
+				// text fields (E, a, ...) depend on the locale
+				return null;
+			}
+		}
+
+		return new FixedLayout( chars.toString().toCharArray() );
+	}
+
+	int length() {
+
+		return chars.length;
+	}
+
+	// index of the seconds in the text, -1 if absent
+	int secondIndex() {
+
+		return second;
+	}
+
+	// true when parsed text gives a LocalDateTime
+	boolean isDateTime() {
+
+		return year >= 0 && month >= 0 && day >= 0 && hour >= 0 && minute >= 0;
+	}
+
+	// local seconds of a canonical date-time, OUT_OF_RANGE otherwise
+	long parse( CharSequence input ) {
+
+		if( !isDateTime() || !matches( input ) ) {
+			return CivilTime.OUT_OF_RANGE;
+		}
+
+		return toLocal(
+				digits( input, year ) * 100 + digits( input, year + 2 ),
+				digits( input, month ),
+				digits( input, day ),
+				digits( input, hour ),
+				digits( input, minute ),
+				second < 0 ? 0 : digits( input, second ) );
+	}
+
+	// true when the input has the shape of the pattern: its length, digits for the fields and the same literals
+	boolean matches( CharSequence input ) {
+
+		int length = chars.length;
+		if( input.length() != length ) {
+			return false;
+		}
+		for( int i = 0; i < length; i++ ) {
+
+			char c = input.charAt( i );
+			char p = chars[i];
+			if( isField( p ) ? c < '0' || c > '9' : c != p ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// same as parse( CharSequence ) on length bytes of ASCII text
+	long parse( byte[] input, int offset, int length ) {
+
+		if( length != chars.length || !isDateTime() ) {
+			return CivilTime.OUT_OF_RANGE;
+		}
+		for( int i = 0; i < length; i++ ) {
+
+			int c = input[offset + i];
+			char p = chars[i];
+			if( isField( p ) ? c < '0' || c > '9' : c != p ) {
+				return CivilTime.OUT_OF_RANGE;
+			}
+		}
+
+		return toLocal(
+				digits( input, offset + year ) * 100 + digits( input, offset + year + 2 ),
+				digits( input, offset + month ),
+				digits( input, offset + day ),
+				digits( input, offset + hour ),
+				digits( input, offset + minute ),
+				second < 0 ? 0 : digits( input, offset + second ) );
+	}
+
+	// writes the text of local seconds at out[at], false when the year needs more than 4 digits
+	boolean format( long local, char[] out, int at ) {
+
+		long days = Math.floorDiv( local, CivilTime.SECONDS_PER_DAY );
+		long date = CivilTime.civilFromDays( days );
+		long y = CivilTime.year( date );
+		if( y < 1 || y > 9999 ) {
+			return false;
+		}
+		int secondOfDay = (int)( local - days * CivilTime.SECONDS_PER_DAY );
+
+		System.arraycopy( chars, 0, out, at, chars.length );
+		if( year >= 0 ) {
+			write( (int)y / 100, out, at + year );
+			write( (int)y % 100, out, at + year + 2 );
+		}
+		if( month >= 0 ) {
+			write( CivilTime.month( date ), out, at + month );
+		}
+		if( day >= 0 ) {
+			write( CivilTime.day( date ), out, at + day );
+		}
+		if( hour >= 0 ) {
+			write( secondOfDay / 3600, out, at + hour );
+		}
+		if( minute >= 0 ) {
+			write( secondOfDay / 60 % 60, out, at + minute );
+		}
+		if( second >= 0 ) {
+			write( secondOfDay % 60, out, at + second );
+		}
+		return true;
+	}
+
+	// two digits of a value below 100
+	static void write( int value, char[] out, int at ) {
+
+		out[at] = (char)( '0' + value / 10 );
+		out[at + 1] = (char)( '0' + value % 10 );
+	}
+
+	private static long toLocal( int year, int month, int day, int hour, int minute, int second ) {
+
+		// yyyy is a year of era, year 0 does not exist
+		if( year == 0 ) {
+			return CivilTime.OUT_OF_RANGE;
+		}
+		return CivilTime.ofFields( year, month, day, hour, minute, second );
+	}
+
+	private static boolean isField( char p ) {
+
+		return p == 'y' || p == 'M' || p == 'd' || p == 'H' || p == 'm' || p == 's';
+	}
+
+	private static int digits( CharSequence input, int at ) {
+
+		return ( input.charAt( at ) - '0' ) * 10 + input.charAt( at + 1 ) - '0';
+	}
+
+	private static int digits( byte[] input, int at ) {
+
+		return ( input[at] - '0' ) * 10 + input[at + 1] - '0';
+	}
+}
@@ -0,0 +1,238 @@
+package miouge;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Copies the elements fetched by a format into named fields of an object.
+ * <p>
+ * The fields are resolved once, when the binder is built: each capture gets
+ * a {@link MethodHandle} setter reading its value from the
+ * {@link ScanResult} with the primitive getter of its kind, and the setters
+ * are chained into a single handle. Binding a line is then one
+ * <code>invokeExact</code> call: integers, floating point values and
+ * characters reach primitive fields without boxing.
+ * <p>
+ * {@link #bind(ScanResult, Object)} reads the chain from a field of the
+ * binder, which the JIT cannot take as a constant: the chain is compiled
+ * on its own and called from the binding loop. Held in a
+ * <code>static final</code> field, the handle returned by
+ * {@link #setter()} is a constant and its setters are inlined into the
+ * loop; <code>Sscanf.main</code> times both.
+ * <p>
+ * Accepted field types, by capture:
+ * <ul>
+ * <li><code>%d %o %x</code>: <code>long</code>, <code>int</code>,
+ * <code>short</code>, <code>byte</code> (narrowed as a cast does),
+ * <code>double</code>, <code>float</code> and their wrappers;</li>
+ * <li><code>%f</code>: <code>double</code>, <code>float</code> and their
+ * wrappers;</li>
+ * <li><code>%c</code>: <code>char</code>, {@link Character};</li>
+ * <li>any capture: {@link String}, {@link CharSequence}, {@link Object}.</li>
+ * </ul>
+ * Fields must not be final or static; they may be private. A binder is
+ * immutable and can be shared between threads.
+ *
+ * @param <T>
+ *            type of the target objects
+ */
+public final class ScanBinder<T> {
+
+	/**
+	 * Binders built by {@link #of(String, Class, String...)}.
+	 */
+	private static final BoundedCache<List<Object>, ScanBinder<?>> binders = new BoundedCache<List<Object>, ScanBinder<?>>(
+			64);
+
+	private final ScanPattern pattern;
+
+	/**
+	 * sets all bound fields: <code>(Object target, ScanResult result)void</code>.
+	 */
+	private final MethodHandle setter;
+
+	/**
+	 * @param format
+	 *            Format string.
+	 * @param type
+	 *            class of the target objects
+	 * @param fields
+	 *            name of the field receiving each capture, in format order;
+	 *            <code>null</code> to ignore a capture
+	 * @return a binder, shared with the previous calls with the same
+	 *         arguments
+	 * @throws ParseException
+	 *             {@link ScanPattern#compile(String)}
+	 * @throws IllegalArgumentException
+	 *             a field is missing or cannot hold its capture.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> ScanBinder<T> of(String format, Class<T> type, String... fields) throws ParseException {
+		List<Object> key = Arrays.<Object> asList(format, type, Arrays.asList(fields));
+		ScanBinder<T> binder = (ScanBinder<T>) binders.get(key);
+		if (binder == null) {
+			binder = new ScanBinder<T>(Sscanf.pattern(format), type, fields);
+			binders.put(key, binder);
+		}
+		return binder;
+	}
+
+	/**
+	 * @param pattern
+	 *            compiled format
+	 * @param type
+	 *            class of the target objects
+	 * @param fields
+	 *            name of the field receiving each capture, in format order;
+	 *            <code>null</code> to ignore a capture
+	 * @throws IllegalArgumentException
+	 *             a field is missing or cannot hold its capture.
+	 */
+	public ScanBinder(ScanPattern pattern, Class<T> type, String... fields) {
+		if (fields.length != pattern.captures)
+			throw new IllegalArgumentException(fields.length + " fields for " + pattern.captures + " captures");
+		this.pattern = pattern;
+		MethodHandle chain = MethodHandles.dropArguments(MethodHandles.constant(Object.class, null).asType(
+				MethodType.methodType(void.class)), 0, Object.class, ScanResult.class);
+		int c = fields.length;
+		for (int s = pattern.steps.length - 1; s >= 0; --s) {
+			ScanPattern.Step step = pattern.steps[s];
+			if (!step.isCapture())
+				continue;
+			String name = fields[--c];
+			if (name != null)
+				chain = MethodHandles.foldArguments(chain, bind(step, c, field(type, name)));
+		}
+		this.setter = chain;
+	}
+
+	/**
+	 * @return handle <code>(Object target, ScanResult result)void</code>
+	 *         setting one field from one capture.
+	 */
+	private static MethodHandle bind(ScanPattern.Step step, int index, Field field) {
+		Class<?> target = field.getType();
+		String getter;
+		Class<?> value;
+		if (!target.isPrimitive() && target.isAssignableFrom(String.class)) {
+			getter = "getString";
+			value = String.class;
+		} else if (step.kind == ScanPattern.INTEGER && isNumber(target, true)) {
+			getter = "getLong";
+			value = long.class;
+		} else if (step.kind == ScanPattern.DOUBLE && isNumber(target, false)) {
+			getter = "getDouble";
+			value = double.class;
+		} else if (step.kind == ScanPattern.CHAR && step.width == 1 && (target == char.class || target == Character.class)) {
+			getter = "getChar";
+			value = char.class;
+		} else
+			throw new IllegalArgumentException("field " + field.getName() + " of type " + target.getName()
+					+ " cannot hold a " + step);
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			MethodHandle get = lookup.findVirtual(ScanResult.class, getter, MethodType.methodType(value, int.class));
+			get = MethodHandles.insertArguments(get, 1, index);
+			field.setAccessible(true);
+			MethodHandle set = lookup.unreflectSetter(field);
+			// to the primitive of the field first, then boxed for a wrapper
+			Class<?> primitive = MethodType.methodType(target).unwrap().returnType();
+			set = MethodHandles.explicitCastArguments(set, MethodType.methodType(void.class, Object.class, primitive));
+			set = MethodHandles.explicitCastArguments(set, MethodType.methodType(void.class, Object.class, value));
+			return MethodHandles.filterArguments(set, 1, get);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("field " + field.getName() + " is not writable", e);
+		}
+	}
+
+	private static boolean isNumber(Class<?> target, boolean integer) {
+		if (target == double.class || target == float.class || target == Double.class || target == Float.class)
+			return true;
+		return integer && (target == long.class || target == int.class || target == short.class || target == byte.class
+				|| target == Long.class || target == Integer.class || target == Short.class || target == Byte.class);
+	}
+
+	private static Field field(Class<?> type, String name) {
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			try {
+				Field field = c.getDeclaredField(name);
+				if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers()))
+					throw new IllegalArgumentException("field " + name + " is static or final");
+				return field;
+			} catch (NoSuchFieldException e) {
+				// look in the superclass
+			}
+		}
+		throw new IllegalArgumentException("no field " + name + " in " + type.getName());
+	}
+
+	/**
+	 * Copies the elements of a complete match into the fields of an object.
+	 *
+	 * @param result
+	 *            elements fetched with the pattern of this binder
+	 * @param target
+	 *            object receiving the elements
+	 * @return <code>false</code>, leaving the object unchanged, when the
+	 *         result does not hold every capture of the pattern
+	 */
+	public boolean bind(ScanResult result, T target) {
+		if (!result.isMatch() || result.size() != pattern.captures)
+			return false;
+		try {
+			setter.invokeExact((Object) target, result);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+		return true;
+	}
+
+	/**
+	 * Scans a line with the scanner of the calling thread and copies the
+	 * fetched elements into an object.
+	 *
+	 * @param line
+	 *            character input
+	 * @param target
+	 *            object receiving the elements
+	 * @return <code>false</code>, leaving the object unchanged, when the line
+	 *         does not match the whole format
+	 */
+	public boolean scan(CharSequence line, T target) {
+		SequenceScanner scanner = SequenceScanner.internal();
+		scanner.reset(line).match(pattern, scanner.scratch);
+		return bind(scanner.scratch, target);
+	}
+
+	/**
+	 * The setters chained, for a caller to hold in a <code>static final</code>
+	 * field and call with <code>invokeExact((Object) target, result)</code>.
+	 * Unlike {@link #bind(ScanResult, Object)}, the handle does not check
+	 * that the result holds every capture of the pattern.
+	 *
+	 * @return handle <code>(Object target, ScanResult result)void</code>
+	 *         setting all bound fields
+	 */
+	public MethodHandle setter() {
+		return setter;
+	}
+
+	/**
+	 * @return the pattern of this binder.
+	 */
+	public ScanPattern getPattern() {
+		return pattern;
+	}
+}
@@ -0,0 +1,284 @@
+package miouge;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds which of several formats a line matches.
+ * <p>
+ * The answer is the first format, in order, that matches the line and
+ * fetches at least one element, as trying {@link Sscanf#sscanf(String, String)}
+ * with each format in turn would give, except for malformed numbers: where
+ * sscanf throws a {@link NumberFormatException}, a format whose numeric
+ * element is not a valid number ({@link ScanResult#BAD_NUMBER}) is skipped
+ * as not matching and the next format is tried. A line no format matches
+ * gets -1 and a {@link ScanResult#MISMATCH} result.
+ * <p>
+ * The line is not matched against every format: the literal prefixes of
+ * the formats (the characters before their first specifier) are arranged
+ * in a trie, walked once with the line. Only the formats whose whole prefix
+ * was found are then matched, from the end of their prefix.
+ * <p>
+ * Beyond the prefix, a format is compared with the last format matched on
+ * the line: their leading steps that are the same (literals, and
+ * specifiers with the same terminator, width and set) match the line the
+ * same way. When the last format failed on one of these steps, the format
+ * fails too and is skipped; otherwise it resumes after them, with their
+ * elements and input offset. Only the steps shared with the last format
+ * tried are reused, so the formats sharing leading steps are best listed
+ * next to each other.
+ * <p>
+ * A classifier is immutable and can be shared between threads.
+ */
+public final class ScanClassifier {
+
+	/**
+	 * Trie node: the characters leading to it are the line prefix.
+	 */
+	private static final class Node {
+
+		final int depth;
+
+		/**
+		 * sorted characters of the children.
+		 */
+		char[] keys;
+
+		Node[] children;
+
+		/**
+		 * pre-order number of the node, and the largest one of its subtree:
+		 * a node is an ancestor of another when its range holds the other's
+		 * number.
+		 */
+		int enter, exit;
+
+		/**
+		 * children while the trie is built.
+		 */
+		Map<Character, Node> building = new TreeMap<Character, Node>();
+
+		Node(int depth) {
+			this.depth = depth;
+		}
+
+		Node child(char c) {
+			char[] k = keys;
+			int lo = 0, hi = k.length - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (k[mid] < c)
+					lo = mid + 1;
+				else if (k[mid] > c)
+					hi = mid - 1;
+				else
+					return children[mid];
+			}
+			return null;
+		}
+	}
+
+	private final ScanPattern[] patterns;
+
+	/**
+	 * node ending the prefix of each pattern, <code>null</code> for a pattern
+	 * without captures (it can never give a non-empty result).
+	 */
+	private final Node[] prefixEnds;
+
+	/**
+	 * index of the first step after the prefix of each pattern.
+	 */
+	private final int[] firstSteps;
+
+	/**
+	 * number of leading steps each pattern has in common with each of the
+	 * patterns before it.
+	 */
+	private final int[][] sharedSteps;
+
+	/**
+	 * number of elements each pattern fetches before each of its steps.
+	 */
+	private final int[][] capturesBefore;
+
+	private final Node root = new Node(0);
+
+	/**
+	 * @param formats
+	 *            candidate formats, by order of preference
+	 * @throws ParseException
+	 *             a format holds an unknown specifier.
+	 */
+	public ScanClassifier(String... formats) throws ParseException {
+		this(compile(formats));
+	}
+
+	/**
+	 * @param patterns
+	 *            candidate patterns, by order of preference
+	 */
+	public ScanClassifier(List<ScanPattern> patterns) {
+		this.patterns = patterns.toArray(new ScanPattern[patterns.size()]);
+		this.prefixEnds = new Node[this.patterns.length];
+		this.firstSteps = new int[this.patterns.length];
+		this.sharedSteps = new int[this.patterns.length][];
+		this.capturesBefore = new int[this.patterns.length][];
+		for (int i = 0; i < this.patterns.length; ++i) {
+			ScanPattern pattern = this.patterns[i];
+			sharedSteps[i] = new int[i];
+			for (int j = 0; j < i; ++j)
+				sharedSteps[i][j] = sharedSteps(pattern, this.patterns[j]);
+			capturesBefore[i] = new int[pattern.steps.length + 1];
+			for (int k = 0; k < pattern.steps.length; ++k) {
+				ScanPattern.Step step = pattern.steps[k];
+				capturesBefore[i][k + 1] = capturesBefore[i][k] + (step.kind != ScanPattern.LITERAL && step.assigns ? 1 : 0);
+			}
+			if (pattern.captures == 0)
+				continue;
+			Node node = root;
+			ScanPattern.Step first = pattern.steps[0];
+			if (first.kind == ScanPattern.LITERAL) {
+				firstSteps[i] = 1;
+				for (char c : first.literal) {
+					Node next = node.building.get(c);
+					if (next == null) {
+						next = new Node(node.depth + 1);
+						node.building.put(c, next);
+					}
+					node = next;
+				}
+			}
+			prefixEnds[i] = node;
+		}
+		freeze(root, 0);
+	}
+
+	/**
+	 * Turns the children maps into sorted arrays and numbers the nodes.
+	 *
+	 * @return the next free number
+	 */
+	private static int freeze(Node node, int counter) {
+		Map<Character, Node> map = node.building;
+		node.building = null;
+		node.keys = new char[map.size()];
+		node.children = new Node[map.size()];
+		int k = 0;
+		for (Map.Entry<Character, Node> e : map.entrySet()) {
+			node.keys[k] = e.getKey();
+			node.children[k++] = e.getValue();
+		}
+		node.enter = counter++;
+		for (Node child : node.children)
+			counter = freeze(child, counter);
+		node.exit = counter - 1;
+		return counter;
+	}
+
+	/**
+	 * @return number of leading steps matching any input the same way in
+	 *         both patterns.
+	 */
+	private static int sharedSteps(ScanPattern a, ScanPattern b) {
+		int n = Math.min(a.steps.length, b.steps.length), k = 0;
+		while (k < n && sameStep(a.steps[k], b.steps[k]))
+			++k;
+		return k;
+	}
+
+	private static boolean sameStep(ScanPattern.Step a, ScanPattern.Step b) {
+		return a.kind == b.kind && Arrays.equals(a.literal, b.literal) && a.radix == b.radix && a.terminator == b.terminator
+				&& Arrays.equals(a.terminatorRest, b.terminatorRest) && a.skipsTerminator == b.skipsTerminator
+				&& a.width == b.width && a.assigns == b.assigns && (a.set == null ? b.set == null : a.set.equals(b.set));
+	}
+
+	private static List<ScanPattern> compile(String[] formats) throws ParseException {
+		List<ScanPattern> patterns = new ArrayList<ScanPattern>(formats.length);
+		for (String format : formats)
+			patterns.add(ScanPattern.compile(format));
+		return patterns;
+	}
+
+	/**
+	 * @param line
+	 *            line to classify
+	 * @param result
+	 *            filled with the elements fetched by the matching format
+	 * @return index of the first matching format, -1 if none matches
+	 */
+	public int classify(CharSequence line, ScanResult result) {
+		return classify(line, 0, line.length(), result);
+	}
+
+	/**
+	 * @param line
+	 *            holds the line to classify
+	 * @param start
+	 *            index of the first character of the line
+	 * @param end
+	 *            index after the last character of the line
+	 * @param result
+	 *            filled with the elements fetched by the matching format
+	 * @return index of the first matching format, -1 if none matches
+	 */
+	public int classify(CharSequence line, int start, int end, ScanResult result) {
+		result.clear(line, 0);
+		if (start == end)
+			return -1;
+		Node node = root;
+		for (int p = start; p < end; ++p) {
+			Node next = node.child(line.charAt(p));
+			if (next == null)
+				break;
+			node = next;
+		}
+		int reached = node.enter;
+		// last format matched on the line, its steps left in the result
+		int last = -1;
+		for (int i = 0; i < patterns.length; ++i) {
+			Node prefix = prefixEnds[i];
+			if (prefix == null || reached < prefix.enter || reached > prefix.exit)
+				continue;
+			int firstStep = firstSteps[i], p = start + prefix.depth, kept = 0;
+			if (last >= 0) {
+				int shared = sharedSteps[i][last];
+				if (result.reached < shared)
+					continue;
+				if (shared > firstStep) {
+					firstStep = shared;
+					p = result.marks[shared];
+					kept = capturesBefore[i][shared];
+				}
+			}
+			SequenceScanner.run(patterns[i], firstStep, line, start, p, end, result, kept,
+					result.marks(patterns[i].steps.length));
+			last = i;
+			if (result.isMatch() && result.size() > 0)
+				return i;
+		}
+		result.clear(line, 0);
+		result.end(ScanResult.MISMATCH, 0, start, start, 0);
+		return -1;
+	}
+
+	/**
+	 * @return number of formats.
+	 */
+	public int size() {
+		return patterns.length;
+	}
+
+	/**
+	 * @param i
+	 *            format index
+	 * @return the pattern of a format
+	 */
+	public ScanPattern getPattern(int i) {
+		return patterns[i];
+	}
+}
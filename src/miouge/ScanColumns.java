@@ -0,0 +1,434 @@
+package miouge;
+
+import java.util.Arrays;
+import java.util.stream.Collector;
+
+/**
+ * Column store for the elements fetched from many lines with one format.
+ * <p>
+ * Each capture of the pattern gets its own column, grown as rows are added:
+ * integers go to a <code>long[]</code>, floating point values to a
+ * <code>double[]</code>, and strings and characters are dictionary-encoded,
+ * each distinct value being kept once and the rows holding its
+ * <code>int</code> code. Adding a row boxes nothing and only allocates for a
+ * string not seen before.
+ * <p>
+ * Filled from a scanning loop with {@link #add(ScanResult)}, or from a whole
+ * file with {@link FileScanner#collect} and {@link #collector(ScanPattern)}.
+ * Columns are not thread-safe.
+ */
+public final class ScanColumns {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Column of one capture.
+	 */
+	public abstract static class Column {
+
+		/**
+		 * number of rows.
+		 */
+		int size;
+
+		/**
+		 * @return number of rows.
+		 */
+		public int size() {
+			return size;
+		}
+
+		abstract void add(ScanResult result, int i);
+
+		abstract void append(Column other);
+
+		static int grow(int capacity, int needed) {
+			return Math.max(needed, capacity + (capacity >> 1) + 1);
+		}
+	}
+
+	/**
+	 * Column of an integer capture.
+	 */
+	public static final class LongColumn extends Column {
+
+		private long[] values = new long[INITIAL_CAPACITY];
+
+		/**
+		 * @param row
+		 *            row index
+		 * @return value of the row
+		 */
+		public long get(int row) {
+			check(row, size);
+			return values[row];
+		}
+
+		/**
+		 * @return a copy of the values, one per row.
+		 */
+		public long[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+
+		@Override
+		void add(ScanResult result, int i) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, grow(size, size + 1));
+			values[size++] = result.getLong(i);
+		}
+
+		@Override
+		void append(Column other) {
+			LongColumn o = (LongColumn) other;
+			if (size + o.size > values.length)
+				values = Arrays.copyOf(values, grow(values.length, size + o.size));
+			System.arraycopy(o.values, 0, values, size, o.size);
+			size += o.size;
+		}
+	}
+
+	/**
+	 * Column of a floating point capture.
+	 */
+	public static final class DoubleColumn extends Column {
+
+		private double[] values = new double[INITIAL_CAPACITY];
+
+		/**
+		 * @param row
+		 *            row index
+		 * @return value of the row
+		 */
+		public double get(int row) {
+			check(row, size);
+			return values[row];
+		}
+
+		/**
+		 * @return a copy of the values, one per row.
+		 */
+		public double[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+
+		@Override
+		void add(ScanResult result, int i) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, grow(size, size + 1));
+			values[size++] = result.getDouble(i);
+		}
+
+		@Override
+		void append(Column other) {
+			DoubleColumn o = (DoubleColumn) other;
+			if (size + o.size > values.length)
+				values = Arrays.copyOf(values, grow(values.length, size + o.size));
+			System.arraycopy(o.values, 0, values, size, o.size);
+			size += o.size;
+		}
+	}
+
+	/**
+	 * Dictionary-encoded column of a string or character capture. Codes are
+	 * given in order of first appearance, from 0.
+	 */
+	public static final class StringColumn extends Column {
+
+		private int[] codes = new int[INITIAL_CAPACITY];
+
+		/**
+		 * distinct values, by code.
+		 */
+		private String[] dictionary = new String[INITIAL_CAPACITY];
+
+		private int distinct;
+
+		/**
+		 * open addressing table of code + 1, 0 for a free slot.
+		 */
+		private int[] table = new int[2 * INITIAL_CAPACITY];
+
+		/**
+		 * hash of each distinct value, by code.
+		 */
+		private int[] hashes = new int[INITIAL_CAPACITY];
+
+		/**
+		 * @param row
+		 *            row index
+		 * @return dictionary code of the row
+		 */
+		public int getCode(int row) {
+			check(row, size);
+			return codes[row];
+		}
+
+		/**
+		 * @param row
+		 *            row index
+		 * @return value of the row
+		 */
+		public String get(int row) {
+			return dictionary[getCode(row)];
+		}
+
+		/**
+		 * @return a copy of the codes, one per row.
+		 */
+		public int[] toCodeArray() {
+			return Arrays.copyOf(codes, size);
+		}
+
+		/**
+		 * @return number of distinct values.
+		 */
+		public int getDictionarySize() {
+			return distinct;
+		}
+
+		/**
+		 * @param code
+		 *            dictionary code
+		 * @return the value of a code
+		 */
+		public String decode(int code) {
+			check(code, distinct);
+			return dictionary[code];
+		}
+
+		@Override
+		void add(ScanResult result, int i) {
+			CharSequence source = result.getSource();
+			int start = result.getStart(i), end = result.getEnd(i);
+			int code;
+			if (source instanceof ByteSequence && !isAscii(source, start, end))
+				code = encode(result.getString(i), 0, -1);
+			else
+				code = encode(source, start, end);
+			addCode(code);
+		}
+
+		@Override
+		void append(Column other) {
+			StringColumn o = (StringColumn) other;
+			if (size == 0 && distinct == 0) {
+				codes = Arrays.copyOf(o.codes, o.codes.length);
+				dictionary = Arrays.copyOf(o.dictionary, o.dictionary.length);
+				hashes = Arrays.copyOf(o.hashes, o.hashes.length);
+				table = Arrays.copyOf(o.table, o.table.length);
+				size = o.size;
+				distinct = o.distinct;
+				return;
+			}
+			int[] remap = new int[o.distinct];
+			for (int c = 0; c < o.distinct; ++c)
+				remap[c] = encode(o.dictionary[c], 0, -1);
+			if (size + o.size > codes.length)
+				codes = Arrays.copyOf(codes, grow(codes.length, size + o.size));
+			for (int r = 0; r < o.size; ++r)
+				codes[size++] = remap[o.codes[r]];
+		}
+
+		private void addCode(int code) {
+			if (size == codes.length)
+				codes = Arrays.copyOf(codes, grow(size, size + 1));
+			codes[size++] = code;
+		}
+
+		/**
+		 * @param end
+		 *            -1 for the whole sequence
+		 * @return the code of the characters, added to the dictionary if new
+		 */
+		private int encode(CharSequence s, int start, int end) {
+			if (end == -1)
+				end = s.length();
+			int h = 0;
+			for (int k = start; k < end; ++k)
+				h = 31 * h + s.charAt(k);
+			int mask = table.length - 1;
+			for (int slot = mix(h) & mask;; slot = (slot + 1) & mask) {
+				int entry = table[slot];
+				if (entry == 0)
+					return insert(slot, h, s.subSequence(start, end).toString());
+				int code = entry - 1;
+				if (hashes[code] == h && equal(dictionary[code], s, start, end))
+					return code;
+			}
+		}
+
+		private int insert(int slot, int hash, String value) {
+			int code = distinct++;
+			if (code == dictionary.length) {
+				dictionary = Arrays.copyOf(dictionary, 2 * code);
+				hashes = Arrays.copyOf(hashes, 2 * code);
+			}
+			dictionary[code] = value;
+			hashes[code] = hash;
+			table[slot] = code + 1;
+			if (2 * distinct > table.length)
+				rehash();
+			return code;
+		}
+
+		private void rehash() {
+			table = new int[2 * table.length];
+			int mask = table.length - 1;
+			for (int code = 0; code < distinct; ++code) {
+				int slot = mix(hashes[code]) & mask;
+				while (table[slot] != 0)
+					slot = (slot + 1) & mask;
+				table[slot] = code + 1;
+			}
+		}
+
+		private static int mix(int h) {
+			h *= 0x9e3779b9;
+			return h ^ (h >>> 16);
+		}
+
+		private static boolean equal(String value, CharSequence s, int start, int end) {
+			if (value.length() != end - start)
+				return false;
+			for (int k = 0; k < value.length(); ++k)
+				if (value.charAt(k) != s.charAt(start + k))
+					return false;
+			return true;
+		}
+
+		private static boolean isAscii(CharSequence s, int start, int end) {
+			for (int k = start; k < end; ++k)
+				if (s.charAt(k) >= 0x80)
+					return false;
+			return true;
+		}
+	}
+
+	private final Column[] columns;
+
+	/**
+	 * @param pattern
+	 *            format whose captures give the columns
+	 */
+	public ScanColumns(ScanPattern pattern) {
+		columns = new Column[pattern.captures];
+		int c = 0;
+		for (ScanPattern.Step step : pattern.steps) {
+			if (!step.isCapture())
+				continue;
+			if (step.kind == ScanPattern.INTEGER)
+				columns[c++] = new LongColumn();
+			else if (step.kind == ScanPattern.DOUBLE)
+				columns[c++] = new DoubleColumn();
+			else
+				columns[c++] = new StringColumn();
+		}
+	}
+
+	/**
+	 * Collector filling columns from the results of a {@link FileScanner}.
+	 * The columns of the chunks are appended in file order.
+	 *
+	 * @param pattern
+	 *            the scanned format
+	 * @return the collector
+	 */
+	public static Collector<ScanResult, ScanColumns, ScanColumns> collector(final ScanPattern pattern) {
+		return Collector.of(() -> new ScanColumns(pattern), ScanColumns::add, ScanColumns::append);
+	}
+
+	/**
+	 * Adds a row. A result that does not hold every capture of the pattern
+	 * (a partial or failed match) is ignored, so that all columns keep the
+	 * same number of rows.
+	 *
+	 * @param result
+	 *            elements fetched from one line
+	 * @return <code>true</code> if the row was added
+	 */
+	public boolean add(ScanResult result) {
+		if (!result.isMatch() || result.size() != columns.length)
+			return false;
+		for (int i = 0; i < columns.length; ++i)
+			columns[i].add(result, i);
+		return true;
+	}
+
+	/**
+	 * Appends the rows of other columns of the same pattern.
+	 *
+	 * @param other
+	 *            columns to append, left unchanged
+	 * @return this
+	 */
+	public ScanColumns append(ScanColumns other) {
+		if (other.columns.length != columns.length)
+			throw new IllegalArgumentException(other.columns.length + " columns, expected " + columns.length);
+		for (int i = 0; i < columns.length; ++i)
+			columns[i].append(other.columns[i]);
+		return this;
+	}
+
+	/**
+	 * @return number of rows.
+	 */
+	public int size() {
+		return columns.length == 0 ? 0 : columns[0].size;
+	}
+
+	/**
+	 * @return number of columns, the capture count of the pattern.
+	 */
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	/**
+	 * @param i
+	 *            capture index
+	 * @return the column of a capture
+	 */
+	public Column getColumn(int i) {
+		check(i, columns.length);
+		return columns[i];
+	}
+
+	/**
+	 * @param i
+	 *            index of an integer capture
+	 * @return its column
+	 * @throws ClassCastException
+	 *             the capture is not an integer.
+	 */
+	public LongColumn getLongColumn(int i) {
+		return (LongColumn) getColumn(i);
+	}
+
+	/**
+	 * @param i
+	 *            index of a floating point capture
+	 * @return its column
+	 * @throws ClassCastException
+	 *             the capture is not a floating point value.
+	 */
+	public DoubleColumn getDoubleColumn(int i) {
+		return (DoubleColumn) getColumn(i);
+	}
+
+	/**
+	 * @param i
+	 *            index of a string or character capture
+	 * @return its column
+	 * @throws ClassCastException
+	 *             the capture is a number.
+	 */
+	public StringColumn getStringColumn(int i) {
+		return (StringColumn) getColumn(i);
+	}
+
+	private static void check(int i, int size) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("index " + i + " of " + size);
+	}
+}
@@ -0,0 +1,301 @@
+package miouge;
+
+import java.util.Arrays;
+
+/**
+ * Number decoding straight from the scanned characters.
+ * <p>
+ * Integers are decoded like {@link Long#parseLong(String, int)} does and
+ * plain decimal floating point values with an exact fast path, without
+ * building a {@link String}. Other floating point forms (exponents out of the
+ * fast range, hexadecimal, NaN...) are handed to
+ * {@link Double#parseDouble(String)}. Results are exactly those of the JDK
+ * methods.
+ * <p>
+ * The <code>decode</code> methods never throw: they return a sentinel for
+ * malformed input. The <code>parse</code> methods throw the same
+ * {@link NumberFormatException} as the JDK methods.
+ */
+final class ScanNumbers {
+
+	/**
+	 * Returned by {@link #decodeLong} for malformed input. It is also the
+	 * value of <code>Long.MIN_VALUE</code> itself: tell them apart with
+	 * {@link #isLong}.
+	 */
+	static final long INVALID_LONG = Long.MIN_VALUE;
+
+	/**
+	 * Returned by {@link #decodeDouble} for malformed input: a NaN with a
+	 * payload that neither arithmetic nor {@link Double#parseDouble(String)}
+	 * produce. Compare with {@link #isInvalid(double)}.
+	 */
+	static final double INVALID_DOUBLE = Double.longBitsToDouble(0x7ff80000badf00dL);
+
+	/**
+	 * Digit values of the ASCII characters, -1 for non digits.
+	 */
+	private static final byte[] symbolTable = new byte[128];
+
+	static {
+		Arrays.fill(symbolTable, (byte) -1);
+		int i;
+		for (i = '0'; i <= '9'; ++i)
+			symbolTable[i] = (byte) (i - '0');
+		for (i = 'A'; i <= 'Z'; ++i)
+			symbolTable[i] = (byte) (i - 'A' + 0xa);
+		for (i = 'a'; i <= 'z'; ++i)
+			symbolTable[i] = (byte) (i - 'a' + 0xa);
+	}
+
+	/**
+	 * Powers of ten exactly representable as doubles.
+	 */
+	private static final double[] powersOfTen = new double[23];
+
+	static {
+		powersOfTen[0] = 1;
+		for (int i = 1; i < powersOfTen.length; ++i)
+			powersOfTen[i] = powersOfTen[i - 1] * 10;
+	}
+
+	/**
+	 * Largest integer below which all integers are exact doubles.
+	 */
+	private static final long exactMantissa = 1L << 53;
+
+	private ScanNumbers() {
+	}
+
+	// -------------------------------- integers --------------------------------
+
+	/**
+	 * @return the value of <code>s.subSequence(from, to)</code> in the given
+	 *         radix, {@link #INVALID_LONG} if it is not a valid long.
+	 */
+	static long decodeLong(CharSequence s, int from, int to, int radix) {
+		return decodeLong(s, from, to, radix, INVALID_LONG);
+	}
+
+	/**
+	 * @return <code>true</code> if {@link Long#parseLong(String, int)}
+	 *         accepts <code>s.subSequence(from, to)</code>.
+	 */
+	static boolean isLong(CharSequence s, int from, int to, int radix) {
+		return decodeLong(s, from, to, radix, INVALID_LONG) != INVALID_LONG
+				|| decodeLong(s, from, to, radix, 0) == Long.MIN_VALUE;
+	}
+
+	/**
+	 * Same as {@link Long#parseLong(String, int)} on
+	 * <code>s.subSequence(from, to)</code>.
+	 *
+	 * @throws NumberFormatException
+	 *             the characters are not a valid long in the given radix.
+	 */
+	static long parseLong(CharSequence s, int from, int to, int radix) {
+		long value = decodeLong(s, from, to, radix, INVALID_LONG);
+		if (value == INVALID_LONG && !isLong(s, from, to, radix))
+			return Long.parseLong(s.subSequence(from, to).toString(), radix);
+		return value;
+	}
+
+	private static long decodeLong(CharSequence s, int from, int to, int radix, long invalid) {
+		int i = from;
+		boolean negative = false;
+		if (i < to) {
+			char first = s.charAt(i);
+			if (first == '-') {
+				negative = true;
+				++i;
+			} else if (first == '+')
+				++i;
+		}
+		if (i == to)
+			return invalid;
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long multmin = limit / radix;
+		long result = 0;
+		for (; i < to; ++i) {
+			char c = s.charAt(i);
+			int digit = c < 128 ? symbolTable[c] : Character.digit(c, radix);
+			if (digit < 0 || digit >= radix || result < multmin)
+				return invalid;
+			result *= radix;
+			if (result < limit + digit)
+				return invalid;
+			result -= digit;
+		}
+		return negative ? result : -result;
+	}
+
+	// ----------------------------- floating point -----------------------------
+
+	/**
+	 * @return <code>true</code> for the {@link #INVALID_DOUBLE} sentinel.
+	 */
+	static boolean isInvalid(double value) {
+		return Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(INVALID_DOUBLE);
+	}
+
+	/**
+	 * @return the value of <code>s.subSequence(from, to)</code>,
+	 *         {@link #INVALID_DOUBLE} if it is not a valid double.
+	 */
+	static double decodeDouble(CharSequence s, int from, int to) {
+		int i = from;
+		boolean negative = false;
+		if (i < to) {
+			char first = s.charAt(i);
+			if (first == '-') {
+				negative = true;
+				++i;
+			} else if (first == '+')
+				++i;
+		}
+		long mantissa = 0;
+		int digits = 0, exponent = 0;
+		boolean seenDigit = false;
+		char c = 0;
+		for (; i < to && (c = s.charAt(i)) >= '0' && c <= '9'; ++i) {
+			seenDigit = true;
+			if (mantissa != 0 || c != '0') {
+				mantissa = mantissa * 10 + (c - '0');
+				++digits;
+			}
+		}
+		if (i < to && c == '.') {
+			for (++i; i < to && (c = s.charAt(i)) >= '0' && c <= '9'; ++i) {
+				seenDigit = true;
+				if (mantissa != 0 || c != '0') {
+					mantissa = mantissa * 10 + (c - '0');
+					++digits;
+				}
+				--exponent;
+			}
+		}
+		if (!seenDigit || digits > 18)
+			return slowDouble(s, from, to);
+		if (i < to && (c == 'e' || c == 'E')) {
+			boolean negativeExponent = false;
+			if (++i < to) {
+				c = s.charAt(i);
+				if (c == '-') {
+					negativeExponent = true;
+					++i;
+				} else if (c == '+')
+					++i;
+			}
+			int e = 0, start = i;
+			for (; i < to && (c = s.charAt(i)) >= '0' && c <= '9' && e < 1000; ++i)
+				e = e * 10 + (c - '0');
+			if (i == start)
+				return slowDouble(s, from, to);
+			exponent += negativeExponent ? -e : e;
+		}
+		if (i != to || mantissa > exactMantissa || exponent < -22 || exponent > 22)
+			return slowDouble(s, from, to);
+		double value = mantissa;
+		if (exponent < 0)
+			value /= powersOfTen[-exponent];
+		else
+			value *= powersOfTen[exponent];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Same as {@link Double#parseDouble(String)} on
+	 * <code>s.subSequence(from, to)</code>.
+	 *
+	 * @throws NumberFormatException
+	 *             the characters are not a valid double.
+	 */
+	static double parseDouble(CharSequence s, int from, int to) {
+		double value = decodeDouble(s, from, to);
+		if (isInvalid(value))
+			return Double.parseDouble(s.subSequence(from, to).toString());
+		return value;
+	}
+
+	private static double slowDouble(CharSequence s, int from, int to) {
+		if (!isDouble(s, from, to))
+			return INVALID_DOUBLE;
+		return Double.parseDouble(s.subSequence(from, to).toString());
+	}
+
+	/**
+	 * Checks the syntax accepted by {@link Double#valueOf(String)}: leading
+	 * and trailing whitespace, an optional sign, then <code>NaN</code>,
+	 * <code>Infinity</code>, or a decimal or hexadecimal floating point
+	 * literal with an optional type suffix.
+	 *
+	 * @return <code>true</code> if {@link Double#parseDouble(String)} accepts
+	 *         <code>s.subSequence(from, to)</code>.
+	 */
+	static boolean isDouble(CharSequence s, int from, int to) {
+		while (from < to && s.charAt(from) <= ' ')
+			++from;
+		while (to > from && s.charAt(to - 1) <= ' ')
+			--to;
+		int i = from;
+		if (i < to && (s.charAt(i) == '+' || s.charAt(i) == '-'))
+			++i;
+		if (i == to)
+			return false;
+		if (s.charAt(i) == 'N')
+			return matches(s, i, to, "NaN");
+		if (s.charAt(i) == 'I')
+			return matches(s, i, to, "Infinity");
+		if (s.charAt(i) == '0' && i + 1 < to && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X')) {
+			i += 2;
+			int digits = 0;
+			for (; i < to && Character.digit(s.charAt(i), 16) >= 0 && s.charAt(i) < 128; ++i)
+				++digits;
+			if (i < to && s.charAt(i) == '.')
+				for (++i; i < to && Character.digit(s.charAt(i), 16) >= 0 && s.charAt(i) < 128; ++i)
+					++digits;
+			if (digits == 0 || i == to || (s.charAt(i) != 'p' && s.charAt(i) != 'P'))
+				return false;
+			i = exponentEnd(s, i + 1, to);
+		} else {
+			int digits = 0;
+			for (; i < to && s.charAt(i) >= '0' && s.charAt(i) <= '9'; ++i)
+				++digits;
+			if (i < to && s.charAt(i) == '.')
+				for (++i; i < to && s.charAt(i) >= '0' && s.charAt(i) <= '9'; ++i)
+					++digits;
+			if (digits == 0)
+				return false;
+			if (i < to && (s.charAt(i) == 'e' || s.charAt(i) == 'E'))
+				i = exponentEnd(s, i + 1, to);
+		}
+		if (i >= 0 && i < to) {
+			char suffix = s.charAt(i++);
+			if (suffix != 'f' && suffix != 'F' && suffix != 'd' && suffix != 'D')
+				return false;
+		}
+		return i == to;
+	}
+
+	/**
+	 * @return index after a signed exponent starting at <code>i</code>, -1 if
+	 *         there is no digit.
+	 */
+	private static int exponentEnd(CharSequence s, int i, int to) {
+		if (i < to && (s.charAt(i) == '+' || s.charAt(i) == '-'))
+			++i;
+		int start = i;
+		while (i < to && s.charAt(i) >= '0' && s.charAt(i) <= '9')
+			++i;
+		return i == start ? -1 : i;
+	}
+
+	private static boolean matches(CharSequence s, int i, int to, String word) {
+		if (to - i != word.length())
+			return false;
+		for (int k = 0; k < word.length(); ++k)
+			if (s.charAt(i + k) != word.charAt(k))
+				return false;
+		return true;
+	}
+}
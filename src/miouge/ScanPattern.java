@@ -0,0 +1,462 @@
+package miouge;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiled form of a {@link Sscanf} format string.
+ * <p>
+ * The format is read once and turned into an immutable list of steps:
+ * literal runs that must match the input exactly and typed captures, each
+ * capture knowing the character that terminates it. Matching a line is then
+ * a walk over the steps, without re-reading the format. Instances hold no
+ * mutable state and can be shared between threads.
+ * <p>
+ * The matching rules are those of {@link Sscanf#scanf(String)}: a capture
+ * reads until the format character that follows it (or until the end of the
+ * input when it is the last element of the format), running out of input
+ * stops the scan with the elements fetched so far, and the very last
+ * character of the format is not compared against the input.
+ * <p>
+ * Besides the specifiers of {@link Sscanf#scanf(String)}, a pattern accepts
+ * C-style conversions of the form <code>%[*][width]specifier</code>:
+ * <ul>
+ * <li><code>*</code> reads the element but does not fetch it;</li>
+ * <li>a width bounds the number of characters read by <code>%s</code>,
+ * <code>%d</code>, <code>%o</code>, <code>%x</code>, <code>%f</code> and
+ * scansets, the element also ending at its terminator; <code>%5c</code>
+ * reads exactly 5 characters and fetches them as a string;</li>
+ * <li><code>%[a-z0-9]</code> fetches the longest run (at least one
+ * character) of the listed characters and ranges, <code>%[^,]</code> the
+ * longest run of characters not listed. A <code>]</code> right after the
+ * opening bracket (or the <code>^</code>) is a member.</li>
+ * </ul>
+ * An element using these forms and directly followed by another conversion
+ * has no terminator: it reads up to its width, the end of its set or the end
+ * of the input, so <code>%4d%2d%2d</code> splits <code>20090321</code>.
+ *
+ * @see Sscanf#scanf(String)
+ */
+public final class ScanPattern {
+
+	/**
+	 * Line separator, substituted to <code>%n</code>.
+	 */
+	private static String ls = System.getProperty("line.separator");
+
+	static final int LITERAL = 0;
+	static final int STRING = 1;
+	static final int INTEGER = 2;
+	static final int DOUBLE = 3;
+	static final int CHAR = 4;
+	static final int SET = 5;
+
+	/**
+	 * width of an element without explicit width.
+	 */
+	static final int NO_WIDTH = Integer.MAX_VALUE;
+
+	/**
+	 * One element of a compiled format.
+	 */
+	public static final class Step {
+
+		/**
+		 * one of the kind constants.
+		 */
+		final int kind;
+
+		/**
+		 * characters to match for a literal step, <code>null</code> otherwise.
+		 */
+		final char[] literal;
+
+		/**
+		 * base of an integer capture.
+		 */
+		final int radix;
+
+		/**
+		 * character ending a capture, -1 to read up to the end of the input.
+		 */
+		final int terminator;
+
+		/**
+		 * following units of a terminator encoded on several units (UTF-8
+		 * form of a pattern), <code>null</code> otherwise.
+		 */
+		final char[] terminatorRest;
+
+		/**
+		 * position of the step in the format string (for error reporting).
+		 */
+		final int position;
+
+		/**
+		 * the character ending this capture is skipped. The reader-based
+		 * scanf drops it when the capture directly follows another string or
+		 * number capture (it is read as the "remain" of the previous one).
+		 */
+		final boolean skipsTerminator;
+
+		/**
+		 * maximum number of characters read, {@link #NO_WIDTH} when unbounded
+		 * (exact number of characters for <code>%c</code>).
+		 */
+		final int width;
+
+		/**
+		 * <code>false</code> for a <code>%*</code> element, read but not
+		 * fetched.
+		 */
+		final boolean assigns;
+
+		/**
+		 * accepted characters of a scanset, <code>null</code> otherwise.
+		 */
+		final ScanSet set;
+
+		Step(int kind, char[] literal, int radix, int terminator, int position) {
+			this(kind, literal, radix, terminator, null, position, false, kind == CHAR ? 1 : NO_WIDTH, true, null);
+		}
+
+		Step(int kind, char[] literal, int radix, int terminator, char[] terminatorRest, int position,
+				boolean skipsTerminator, int width, boolean assigns, ScanSet set) {
+			this.kind = kind;
+			this.literal = literal;
+			this.radix = radix;
+			this.terminator = terminator;
+			this.terminatorRest = terminatorRest;
+			this.position = position;
+			this.skipsTerminator = skipsTerminator;
+			this.width = width;
+			this.assigns = assigns;
+			this.set = set;
+		}
+
+		/**
+		 * @return <code>true</code> if this step fetches a value from the
+		 *         input.
+		 */
+		public boolean isCapture() {
+			return kind != LITERAL && assigns;
+		}
+
+		/**
+		 * @return <code>true</code> for an element written with the plain
+		 *         {@link Sscanf#scanf(String)} syntax.
+		 */
+		boolean isPlain() {
+			return assigns && set == null && width == (kind == CHAR ? 1 : NO_WIDTH);
+		}
+
+		/**
+		 * @return the literal characters, or <code>null</code> for a capture.
+		 */
+		public String getLiteral() {
+			return literal == null ? null : new String(literal);
+		}
+
+		/**
+		 * @return position of the step in the format string.
+		 */
+		public int getPosition() {
+			return position;
+		}
+
+		@Override
+		public String toString() {
+			String s;
+			switch (kind) {
+				case LITERAL:
+					return "literal \"" + new String(literal) + "\"";
+				case STRING:
+					s = "string until " + terminatorName();
+					break;
+				case INTEGER:
+					s = "integer base " + radix + " until " + terminatorName();
+					break;
+				case DOUBLE:
+					s = "double until " + terminatorName();
+					break;
+				case SET:
+					s = "scanset";
+					break;
+				default:
+					s = width == 1 ? "char" : "chars";
+			}
+			if (width != NO_WIDTH && (kind != CHAR || width != 1))
+				s += ", width " + width;
+			return assigns ? s : s + ", skipped";
+		}
+
+		private String terminatorName() {
+			return terminator == -1 ? "end" : "'" + (char) terminator + "'";
+		}
+	}
+
+	private final String format;
+
+	final Step[] steps;
+
+	/**
+	 * number of capturing steps.
+	 */
+	final int captures;
+
+	/**
+	 * <code>true</code> for the UTF-8 form of a pattern, see {@link #utf8()}.
+	 */
+	final boolean bytes;
+
+	/**
+	 * UTF-8 form of this pattern, built on first use.
+	 */
+	private volatile ScanPattern utf8;
+
+	private ScanPattern(String format, Step[] steps, boolean bytes) {
+		this.format = format;
+		this.steps = steps;
+		this.bytes = bytes;
+		int n = 0;
+		for (Step step : steps)
+			if (step.isCapture())
+				++n;
+		this.captures = n;
+	}
+
+	/**
+	 * Compiles a format string. See {@link Sscanf#scanf(String)} for the
+	 * supported specifiers, and the class description for widths, scansets
+	 * and <code>%*</code>.
+	 *
+	 * @param format
+	 *            Format string.
+	 * @return the compiled pattern
+	 * @throws ParseException
+	 *             the format holds an unknown specifier, a zero width or a
+	 *             malformed scanset.
+	 */
+	public static ScanPattern compile(String format) throws ParseException {
+		char[] tape = format.replace("%n", ls).toCharArray();
+		List<Step> steps = new ArrayList<Step>();
+		StringBuilder run = new StringBuilder();
+		int runStart = 0;
+		for (int i = 0; i < tape.length; ++i) {
+			char f = tape[i];
+			if (f != '%') {
+				// the last character of the format is never compared
+				if (i + 1 < tape.length) {
+					if (run.length() == 0)
+						runStart = i;
+					run.append(f);
+				}
+				continue;
+			}
+			if (i + 1 == tape.length)
+				break;
+			if (run.length() > 0) {
+				steps.add(literal(run, runStart));
+				run.setLength(0);
+			}
+			int position = i++;
+			boolean assigns = true;
+			int width = NO_WIDTH;
+			if (tape[i] == '*') {
+				assigns = false;
+				++i;
+			}
+			if (i < tape.length && tape[i] >= '0' && tape[i] <= '9') {
+				long w = 0;
+				for (; i < tape.length && tape[i] >= '0' && tape[i] <= '9'; ++i)
+					w = Math.min(w * 10 + tape[i] - '0', NO_WIDTH);
+				if (w == 0)
+					throw new ParseException("Invalid width: 0", position);
+				width = (int) w;
+			}
+			if (i == tape.length)
+				throw new ParseException("Incomplete format specifier", position);
+			char t = tape[i];
+			ScanSet set = null;
+			if (t == '[') {
+				int from = i + 1;
+				boolean negated = from < tape.length && tape[from] == '^';
+				if (negated)
+					++from;
+				int close = from < tape.length && tape[from] == ']' ? from + 1 : from;
+				while (close < tape.length && tape[close] != ']')
+					++close;
+				if (close == tape.length)
+					throw new ParseException("Unterminated scanset", position);
+				set = new ScanSet(tape, from, close, negated);
+				i = close;
+			}
+			boolean plain = assigns && width == NO_WIDTH && set == null;
+			int terminator = i + 1 < tape.length ? tape[i + 1] : -1;
+			if (!plain && terminator == '%' && i + 2 < tape.length && tape[i + 2] != '%')
+				terminator = -1;
+			switch (t) {
+				case 's':
+				case 'S':
+					steps.add(capture(STRING, 0, terminator, position, width, assigns, null));
+					break;
+				case 'd':
+					steps.add(capture(INTEGER, 10, terminator, position, width, assigns, null));
+					break;
+				case 'o':
+					steps.add(capture(INTEGER, 8, terminator, position, width, assigns, null));
+					break;
+				case 'x':
+				case 'X':
+					steps.add(capture(INTEGER, 16, terminator, position, width, assigns, null));
+					break;
+				case 'f':
+					steps.add(capture(DOUBLE, 0, terminator, position, width, assigns, null));
+					break;
+				case 'c':
+					steps.add(capture(CHAR, 0, terminator, position, width == NO_WIDTH ? 1 : width, assigns, null));
+					break;
+				case '[':
+					steps.add(capture(SET, 0, terminator, position, width, assigns, set));
+					break;
+				case '%':
+					if (!plain)
+						throw new ParseException("Invalid format specifier: " + t, i);
+					steps.add(new Step(LITERAL, new char[] { '%' }, 0, -1, position));
+					break;
+				default:
+					throw new ParseException("Invalid format specifier: " + t, i);
+			}
+		}
+		if (run.length() > 0)
+			steps.add(literal(run, runStart));
+		Step[] compiled = steps.toArray(new Step[steps.size()]);
+		for (int i = 1; i < compiled.length; ++i) {
+			Step prev = compiled[i - 1], step = compiled[i];
+			if (readsUntilTerminator(prev) && !prev.skipsTerminator && readsUntilTerminator(step))
+				compiled[i] = new Step(step.kind, null, step.radix, step.terminator, null, step.position, true,
+						step.width, step.assigns, null);
+		}
+		return new ScanPattern(format, compiled, false);
+	}
+
+	private static Step capture(int kind, int radix, int terminator, int position, int width, boolean assigns,
+			ScanSet set) {
+		return new Step(kind, null, radix, terminator, null, position, false, width, assigns, set);
+	}
+
+	/**
+	 * @return the form of this pattern matching UTF-8 bytes: literals and
+	 *         terminators are encoded in UTF-8, one byte per unit.
+	 * @see ByteScanner
+	 */
+	ScanPattern utf8() {
+		if (bytes)
+			return this;
+		ScanPattern p = utf8;
+		if (p == null) {
+			Step[] encoded = new Step[steps.length];
+			for (int i = 0; i < steps.length; ++i) {
+				Step step = steps[i];
+				char[] literal = step.literal == null ? null : encode(new String(step.literal));
+				int terminator = step.terminator;
+				char[] rest = null;
+				// a surrogate stays a unit above 0xff, matched against the high
+				// surrogate of a 4 byte sequence: the char scanner stops at the
+				// high surrogate alone, as the reader-based scanf does
+				if (terminator > 0x7f && !Character.isSurrogate((char) terminator)) {
+					char[] units = encode(String.valueOf((char) terminator));
+					terminator = units[0];
+					rest = Arrays.copyOfRange(units, 1, units.length);
+				}
+				encoded[i] = new Step(step.kind, literal, step.radix, terminator, rest, step.position,
+						step.skipsTerminator, step.width, step.assigns, step.set);
+			}
+			utf8 = p = new ScanPattern(format, encoded, true);
+		}
+		return p;
+	}
+
+	/**
+	 * @return the UTF-8 bytes of s, one per unit, except for its lone
+	 *         surrogates (the last character of a format is dropped, which
+	 *         can split a pair): they are kept as they are.
+	 */
+	private static char[] encode(String s) {
+		StringBuilder units = new StringBuilder(s.length() * 3);
+		for (int i = 0; i < s.length();) {
+			int cp = s.codePointAt(i);
+			int n = Character.charCount(cp);
+			if (n == 1 && Character.isSurrogate((char) cp))
+				units.append((char) cp);
+			else
+				for (byte b : s.substring(i, i + n).getBytes(StandardCharsets.UTF_8))
+					units.append((char) (b & 0xff));
+			i += n;
+		}
+		return units.toString().toCharArray();
+	}
+
+	/**
+	 * @return <code>true</code> for the plain string and number elements, the
+	 *         ones concerned by the terminator quirk of the reader-based scanf.
+	 */
+	private static boolean readsUntilTerminator(Step step) {
+		return (step.kind == STRING || step.kind == INTEGER || step.kind == DOUBLE) && step.isPlain();
+	}
+
+	private static Step literal(StringBuilder run, int position) {
+		char[] chars = new char[run.length()];
+		run.getChars(0, chars.length, chars, 0);
+		return new Step(LITERAL, chars, 0, -1, position);
+	}
+
+	/**
+	 * Matches the input against this pattern, using the scanner of the
+	 * calling thread.
+	 *
+	 * @param input
+	 *            character input
+	 * @return an array containing all the fetched elements from input, or
+	 *         <code>null</code> when the input is empty
+	 * @throws ParseException
+	 *             When an input character differs from the one expected by
+	 *             the format.
+	 * @throws NumberFormatException
+	 *             a numeric capture is not a valid number.
+	 * @see SequenceScanner#scan(ScanPattern)
+	 */
+	public Object[] scan(CharSequence input) throws ParseException {
+		return SequenceScanner.internal().reset(input).scan(this);
+	}
+
+	/**
+	 * @return the steps of this pattern, in format order.
+	 */
+	public List<Step> getSteps() {
+		return Collections.unmodifiableList(Arrays.asList(steps));
+	}
+
+	/**
+	 * @return number of elements fetched by a complete match.
+	 */
+	public int getCaptureCount() {
+		return captures;
+	}
+
+	/**
+	 * @return the format string this pattern was compiled from.
+	 */
+	public String getFormat() {
+		return format;
+	}
+
+	@Override
+	public String toString() {
+		return format;
+	}
+}
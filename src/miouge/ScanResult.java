@@ -0,0 +1,440 @@
+package miouge;
+
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Reusable holder for the elements fetched by a scan.
+ * <p>
+ * Numbers and characters are kept in primitive arrays and strings as
+ * ranges of the scanned input, so filling a result does not box anything.
+ * A result is cleared by every scan it is passed to; keep one per scanning
+ * loop and read the fields before scanning the next line.
+ * <p>
+ * A result also tells how the scan ended ({@link #getStatus()}) and, when
+ * it failed, where: matching reports failures this way instead of throwing.
+ *
+ * @see SequenceScanner#scan(ScanPattern, ScanResult)
+ */
+public final class ScanResult {
+
+	/**
+	 * Status: the whole format matched the input.
+	 */
+	public static final int MATCHED = 0;
+
+	/**
+	 * Status: the input ended before the format, the elements fetched so far
+	 * are kept (as {@link Sscanf#scanf(String)} does).
+	 */
+	public static final int PARTIAL = 1;
+
+	/**
+	 * Status: the input was empty.
+	 */
+	public static final int EMPTY = 2;
+
+	/**
+	 * Status: an input character differs from the format.
+	 */
+	public static final int MISMATCH = 3;
+
+	/**
+	 * Status: a numeric element is not a valid number.
+	 */
+	public static final int BAD_NUMBER = 4;
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	/**
+	 * the scanned input.
+	 */
+	private CharSequence source;
+
+	/**
+	 * number of fetched elements.
+	 */
+	private int count;
+
+	/**
+	 * how the scan ended.
+	 */
+	private int status = EMPTY;
+
+	/**
+	 * format position and input range of a failure.
+	 */
+	private int errorPosition, errorOffset, errorEnd;
+
+	/**
+	 * expected character of a mismatch (-1 for a scanset), radix of a bad
+	 * integer (0 for a bad double).
+	 */
+	private int errorDetail;
+
+	/**
+	 * {@link ScanPattern} kind of each element.
+	 */
+	private int[] kinds = new int[INITIAL_CAPACITY];
+
+	/**
+	 * integer values and characters.
+	 */
+	private long[] longs = new long[INITIAL_CAPACITY];
+
+	/**
+	 * floating point values.
+	 */
+	private double[] doubles = new double[INITIAL_CAPACITY];
+
+	/**
+	 * range of each element in the input.
+	 */
+	private int[] starts = new int[INITIAL_CAPACITY], ends = new int[INITIAL_CAPACITY];
+
+	/**
+	 * input offset at the start of each step of the format, and after its
+	 * last step, as far as the scan reached; only filled for
+	 * {@link ScanClassifier}.
+	 */
+	int[] marks = new int[INITIAL_CAPACITY];
+
+	/**
+	 * step the scan ended on, the number of steps after a complete match;
+	 * only set along with {@link #marks}.
+	 */
+	int reached;
+
+	/**
+	 * @return number of fetched elements.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return how the scan ended: {@link #MATCHED}, {@link #PARTIAL},
+	 *         {@link #EMPTY}, {@link #MISMATCH} or {@link #BAD_NUMBER}
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return <code>true</code> when the input matched the format, fully or
+	 *         up to its end ({@link #MATCHED} or {@link #PARTIAL}).
+	 */
+	public boolean isMatch() {
+		return status == MATCHED || status == PARTIAL;
+	}
+
+	/**
+	 * @return position in the format string of the element that failed or
+	 *         was not reached, -1 after a complete match or on empty input.
+	 */
+	public int getErrorPosition() {
+		return status == MATCHED || status == EMPTY ? -1 : errorPosition;
+	}
+
+	/**
+	 * @return index in the input of the mismatching character or of the
+	 *         invalid number, or the end of the input for a partial match;
+	 *         -1 after a complete match or on empty input.
+	 */
+	public int getErrorOffset() {
+		return status == MATCHED || status == EMPTY ? -1 : errorOffset;
+	}
+
+	/**
+	 * Throws the exception {@link SequenceScanner#scan(ScanPattern)} used to
+	 * report the failure of this scan, if it failed.
+	 *
+	 * @throws ParseException
+	 *             {@link #MISMATCH}
+	 * @throws NumberFormatException
+	 *             {@link #BAD_NUMBER}, as thrown by
+	 *             {@link Long#parseLong(String, int)} or
+	 *             {@link Double#parseDouble(String)}
+	 */
+	public void throwError() throws ParseException {
+		if (status == MISMATCH) {
+			if (errorDetail == -1)
+				throw new ParseException("no scanset character, got " + source.charAt(errorOffset), errorPosition);
+			throw new ParseException((char) errorDetail + " expected, got " + source.charAt(errorOffset), errorPosition);
+		}
+		if (status == BAD_NUMBER) {
+			if (errorDetail == 0)
+				ScanNumbers.parseDouble(source, errorOffset, errorEnd);
+			else
+				ScanNumbers.parseLong(source, errorOffset, errorEnd, errorDetail);
+			// the JDK parser accepted what the scan rejected, still a failure
+			throw new NumberFormatException("For input string: \"" + source.subSequence(errorOffset, errorEnd) + "\"");
+		}
+	}
+
+	/**
+	 * @param i
+	 *            element index
+	 * @return <code>true</code> for a string element (<code>%s</code>, a
+	 *         scanset or <code>%c</code> with a width above 1).
+	 */
+	public boolean isString(int i) {
+		return kind(i) == ScanPattern.STRING;
+	}
+
+	/**
+	 * @param i
+	 *            element index
+	 * @return value of an integer element (<code>%d</code>, <code>%o</code>,
+	 *         <code>%x</code>)
+	 * @throws IllegalStateException
+	 *             the element is not an integer.
+	 */
+	public long getLong(int i) {
+		check(i, ScanPattern.INTEGER);
+		return longs[i];
+	}
+
+	/**
+	 * @param i
+	 *            element index
+	 * @return value of a floating point (<code>%f</code>) or integer element
+	 * @throws IllegalStateException
+	 *             the element is not a number.
+	 */
+	public double getDouble(int i) {
+		if (kind(i) == ScanPattern.INTEGER)
+			return longs[i];
+		check(i, ScanPattern.DOUBLE);
+		return doubles[i];
+	}
+
+	/**
+	 * @param i
+	 *            element index
+	 * @return value of a character element (<code>%c</code>)
+	 * @throws IllegalStateException
+	 *             the element is not a character.
+	 */
+	public char getChar(int i) {
+		check(i, ScanPattern.CHAR);
+		return (char) longs[i];
+	}
+
+	/**
+	 * @param i
+	 *            element index
+	 * @return the input characters of the element, as a slice of the input
+	 */
+	public CharSequence getSequence(int i) {
+		kind(i);
+		return source.subSequence(starts[i], ends[i]);
+	}
+
+	/**
+	 * @param i
+	 *            element index
+	 * @return the input characters of the element
+	 */
+	public String getString(int i) {
+		return getSequence(i).toString();
+	}
+
+	/**
+	 * Appends the input characters of an element without creating a slice.
+	 *
+	 * @param i
+	 *            element index
+	 * @param out
+	 *            destination
+	 * @return <code>out</code>
+	 */
+	public StringBuilder appendTo(int i, StringBuilder out) {
+		kind(i);
+		if (source instanceof ByteSequence)
+			((ByteSequence) source).appendTo(starts[i], ends[i], out);
+		else
+			out.append(source, starts[i], ends[i]);
+		return out;
+	}
+
+	/**
+	 * @param i
+	 *            element index
+	 * @return index of the first input character of the element (of the
+	 *         first byte for a {@link ByteScanner} result)
+	 */
+	public int getStart(int i) {
+		kind(i);
+		return starts[i];
+	}
+
+	/**
+	 * @param i
+	 *            element index
+	 * @return index after the last input character of the element
+	 */
+	public int getEnd(int i) {
+		kind(i);
+		return ends[i];
+	}
+
+	/**
+	 * @param i
+	 *            element index
+	 * @return number of input characters (bytes for a {@link ByteScanner}
+	 *         result) of the element
+	 */
+	public int getLength(int i) {
+		kind(i);
+		return ends[i] - starts[i];
+	}
+
+	/**
+	 * @return the input the elements were fetched from.
+	 */
+	public CharSequence getSource() {
+		return source;
+	}
+
+	/**
+	 * @param i
+	 *            element index
+	 * @return the element as {@link Sscanf#scanf(String)} returns it:
+	 *         {@link String}, {@link Long}, {@link Double} or
+	 *         {@link Character}
+	 */
+	public Object get(int i) {
+		switch (kind(i)) {
+			case ScanPattern.INTEGER:
+				return longs[i];
+			case ScanPattern.DOUBLE:
+				return doubles[i];
+			case ScanPattern.CHAR:
+				return (char) longs[i];
+			default:
+				return getString(i);
+		}
+	}
+
+	/**
+	 * @return the elements as {@link Sscanf#scanf(String)} returns them.
+	 */
+	public Object[] toArray() {
+		Object[] data = new Object[count];
+		for (int i = 0; i < count; ++i)
+			data[i] = get(i);
+		return data;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	// ------------------------------- filling --------------------------------
+
+	void clear(CharSequence source, int capacity) {
+		this.source = source;
+		this.count = 0;
+		this.status = EMPTY;
+		if (kinds.length < capacity) {
+			kinds = new int[capacity];
+			longs = new long[capacity];
+			doubles = new double[capacity];
+			starts = new int[capacity];
+			ends = new int[capacity];
+		}
+	}
+
+	/**
+	 * Clears the status but keeps the first elements, fetched by steps a
+	 * scan resumes after.
+	 */
+	void resume(int kept, int capacity) {
+		this.count = kept;
+		this.status = EMPTY;
+		if (kinds.length < capacity) {
+			kinds = Arrays.copyOf(kinds, capacity);
+			longs = Arrays.copyOf(longs, capacity);
+			doubles = Arrays.copyOf(doubles, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+		}
+	}
+
+	/**
+	 * @return {@link #marks}, holding at least one offset per step and one
+	 *         after the last step
+	 */
+	int[] marks(int steps) {
+		if (marks.length <= steps)
+			marks = Arrays.copyOf(marks, steps + 1);
+		return marks;
+	}
+
+	void addString(int start, int end) {
+		add(ScanPattern.STRING, start, end);
+	}
+
+	void addLong(long value, int start, int end) {
+		longs[count] = value;
+		add(ScanPattern.INTEGER, start, end);
+	}
+
+	void addDouble(double value, int start, int end) {
+		doubles[count] = value;
+		add(ScanPattern.DOUBLE, start, end);
+	}
+
+	void addChar(char value, int start, int end) {
+		longs[count] = value;
+		add(ScanPattern.CHAR, start, end);
+	}
+
+	/**
+	 * Records how the scan ended.
+	 *
+	 * @return <code>status</code>
+	 */
+	int end(int status, int position, int offset, int end, int detail) {
+		this.status = status;
+		this.errorPosition = position;
+		this.errorOffset = offset;
+		this.errorEnd = end;
+		this.errorDetail = detail;
+		return status;
+	}
+
+	private void add(int kind, int start, int end) {
+		kinds[count] = kind;
+		starts[count] = start;
+		ends[count] = end;
+		++count;
+	}
+
+	private int kind(int i) {
+		if (i < 0 || i >= count)
+			throw new IndexOutOfBoundsException("element " + i + " of " + count);
+		return kinds[i];
+	}
+
+	private void check(int i, int kind) {
+		int actual = kind(i);
+		if (actual != kind)
+			throw new IllegalStateException("element " + i + " is " + kindName(actual) + ", not " + kindName(kind));
+	}
+
+	private static String kindName(int kind) {
+		switch (kind) {
+			case ScanPattern.STRING:
+				return "a string";
+			case ScanPattern.INTEGER:
+				return "an integer";
+			case ScanPattern.DOUBLE:
+				return "a double";
+			default:
+				return "a char";
+		}
+	}
+}
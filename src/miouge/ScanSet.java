@@ -0,0 +1,142 @@
+package miouge;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Characters accepted by a <code>%[...]</code> scanset.
+ * <p>
+ * ASCII members are kept in a 128 bit mask, other members as sorted code
+ * point ranges looked up by binary search. A set is immutable.
+ */
+final class ScanSet {
+
+	/**
+	 * members below 64, and from 64 to 127.
+	 */
+	private final long low, high;
+
+	/**
+	 * first and last code points of the ranges above 127, sorted and
+	 * disjoint.
+	 */
+	private final int[] ranges;
+
+	/**
+	 * <code>true</code> for a <code>%[^...]</code> set.
+	 */
+	private final boolean negated;
+
+	/**
+	 * Reads the members between the brackets: single characters and
+	 * <code>a-z</code> ranges; a <code>]</code> first or a <code>-</code>
+	 * first or last stands for itself.
+	 *
+	 * @param format
+	 *            format string
+	 * @param from
+	 *            index of the first member
+	 * @param to
+	 *            index of the closing bracket
+	 * @param negated
+	 *            <code>true</code> to accept the characters not listed
+	 * @throws ParseException
+	 *             a range ends before it starts.
+	 */
+	ScanSet(char[] format, int from, int to, boolean negated) throws ParseException {
+		long low = 0, high = 0;
+		List<int[]> wide = new ArrayList<int[]>();
+		for (int i = from; i < to;) {
+			int first = Character.codePointAt(format, i, to);
+			int last = first;
+			i += Character.charCount(first);
+			if (i + 1 < to && format[i] == '-') {
+				last = Character.codePointAt(format, i + 1, to);
+				if (last < first)
+					throw new ParseException("Invalid scanset range: " + new String(format, i - 1, 3), i);
+				i += 1 + Character.charCount(last);
+			}
+			for (int c = first; c <= last && c < 128; ++c) {
+				if (c < 64)
+					low |= 1L << c;
+				else
+					high |= 1L << (c - 64);
+			}
+			if (last >= 128)
+				wide.add(new int[] { Math.max(first, 128), last });
+		}
+		this.low = low;
+		this.high = high;
+		this.ranges = merge(wide);
+		this.negated = negated;
+	}
+
+	private static int[] merge(List<int[]> wide) {
+		Collections.sort(wide, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				return Integer.compare(a[0], b[0]);
+			}
+		});
+		List<int[]> merged = new ArrayList<int[]>();
+		for (int[] r : wide) {
+			int[] prev = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if (prev != null && r[0] <= prev[1] + 1)
+				prev[1] = Math.max(prev[1], r[1]);
+			else
+				merged.add(r);
+		}
+		int[] ranges = new int[2 * merged.size()];
+		for (int i = 0; i < merged.size(); ++i) {
+			ranges[2 * i] = merged.get(i)[0];
+			ranges[2 * i + 1] = merged.get(i)[1];
+		}
+		return ranges;
+	}
+
+	/**
+	 * @param c
+	 *            code point
+	 * @return <code>true</code> if the set accepts the character.
+	 */
+	boolean contains(int c) {
+		boolean member;
+		if (c < 64)
+			member = (low & 1L << c) != 0;
+		else if (c < 128)
+			member = (high & 1L << (c - 64)) != 0;
+		else {
+			int lo = 0, hi = ranges.length / 2 - 1;
+			member = false;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (ranges[2 * mid + 1] < c)
+					lo = mid + 1;
+				else if (ranges[2 * mid] > c)
+					hi = mid - 1;
+				else {
+					member = true;
+					break;
+				}
+			}
+		}
+		return member != negated;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof ScanSet))
+			return false;
+		ScanSet other = (ScanSet) o;
+		return low == other.low && high == other.high && negated == other.negated && Arrays.equals(ranges, other.ranges);
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(low) * 31 + Long.hashCode(high) + Arrays.hashCode(ranges) + (negated ? 1 : 0);
+	}
+}
@@ -0,0 +1,389 @@
+package miouge;
+
+import java.text.ParseException;
+
+/**
+ * Scanner matching {@link ScanPattern}s against a {@link CharSequence}.
+ * <p>
+ * Unlike {@link Sscanf}, which is a {@link java.io.BufferedReader} and owns
+ * an 8K buffer, a scanner only holds a reference to its input and a range in
+ * it. It is meant to be {@link #reset(CharSequence) reset} on each line and
+ * reused, either owned by the caller or taken from {@link #forThread()}, so
+ * that scanning a line allocates nothing but the fetched elements.
+ * <p>
+ * A scanner is not thread-safe.
+ */
+public final class SequenceScanner {
+
+	private static final ThreadLocal<SequenceScanner> perThread = new ThreadLocal<SequenceScanner>() {
+		@Override
+		protected SequenceScanner initialValue() {
+			return new SequenceScanner();
+		}
+	};
+
+	/**
+	 * Scanners reset by {@link Sscanf}, {@link ScanPattern} and
+	 * {@link ScanBinder}, distinct from the ones handed out by
+	 * {@link #forThread()}.
+	 */
+	private static final ThreadLocal<SequenceScanner> internal = new ThreadLocal<SequenceScanner>() {
+		@Override
+		protected SequenceScanner initialValue() {
+			return new SequenceScanner();
+		}
+	};
+
+	/**
+	 * Current input
+	 */
+	private CharSequence input = "";
+
+	/**
+	 * Start and end (exclusive) of the scanned range of {@link #input}.
+	 */
+	private int start, end;
+
+	/**
+	 * result used by {@link #scan(ScanPattern)} and
+	 * {@link Sscanf#sscanf(String, String)}.
+	 */
+	final ScanResult scratch = new ScanResult();
+
+	/**
+	 * The library scans with scanners of its own, so the input and the
+	 * results of this one are only changed by the caller.
+	 *
+	 * @return the scanner owned by the calling thread.
+	 */
+	public static SequenceScanner forThread() {
+		return perThread.get();
+	}
+
+	/**
+	 * @return the scanner of the calling thread used inside the package.
+	 */
+	static SequenceScanner internal() {
+		return internal.get();
+	}
+
+	/**
+	 * Sets the whole sequence as the next input.
+	 *
+	 * @param input
+	 *            character input
+	 * @return this scanner
+	 */
+	public SequenceScanner reset(CharSequence input) {
+		return reset(input, 0, input.length());
+	}
+
+	/**
+	 * Sets a range of a sequence as the next input.
+	 *
+	 * @param input
+	 *            character input
+	 * @param start
+	 *            index of the first character to scan
+	 * @param end
+	 *            index after the last character to scan
+	 * @return this scanner
+	 */
+	public SequenceScanner reset(CharSequence input, int start, int end) {
+		if (start < 0 || end > input.length() || start > end)
+			throw new IndexOutOfBoundsException("range [" + start + ", " + end + ") of " + input.length());
+		this.input = input;
+		this.start = start;
+		this.end = end;
+		return this;
+	}
+
+	/**
+	 * Matches the current input against a pattern, see
+	 * {@link Sscanf#scanf(String)} for the matching rules.
+	 *
+	 * @param pattern
+	 *            compiled format
+	 * @return an array containing all the fetched elements from input, or
+	 *         <code>null</code> when the input is empty
+	 * @throws ParseException
+	 *             When an input character differs from the one expected by
+	 *             the format.
+	 * @throws NumberFormatException
+	 *             a numeric capture is not a valid number.
+	 */
+	public Object[] scan(ScanPattern pattern) throws ParseException {
+		if (scan(pattern, scratch) == -1)
+			return null;
+		return scratch.toArray();
+	}
+
+	/**
+	 * Matches the current input against a pattern and stores the fetched
+	 * elements in a reusable result, without boxing them.
+	 *
+	 * @param pattern
+	 *            compiled format
+	 * @param result
+	 *            cleared and filled with the fetched elements
+	 * @return number of fetched elements, -1 when the input is empty
+	 * @throws ParseException
+	 *             When an input character differs from the one expected by
+	 *             the format.
+	 * @throws NumberFormatException
+	 *             a numeric capture is not a valid number.
+	 */
+	public int scan(ScanPattern pattern, ScanResult result) throws ParseException {
+		return report(match(pattern, result), result);
+	}
+
+	/**
+	 * Matches the current input against a pattern without throwing: the
+	 * outcome is returned as a status, and the failing format position and
+	 * input offset are available from the result.
+	 *
+	 * @param pattern
+	 *            compiled format
+	 * @param result
+	 *            cleared and filled with the fetched elements and the outcome
+	 * @return {@link ScanResult#getStatus()}
+	 */
+	public int match(ScanPattern pattern, ScanResult result) {
+		return run(pattern, 0, input, start, start, end, result);
+	}
+
+	/**
+	 * Turns a status into the return value or exception of the throwing scan
+	 * methods.
+	 *
+	 * @return number of fetched elements, -1 for an empty input
+	 */
+	static int report(int status, ScanResult result) throws ParseException {
+		if (status == ScanResult.EMPTY)
+			return -1;
+		result.throwError();
+		if (!result.isMatch())
+			throw new IllegalStateException("scan ended with status " + status);
+		return result.size();
+	}
+
+	/**
+	 * The matching engine, shared with {@link ByteScanner} and
+	 * {@link ScanClassifier}. It resumes a match from a given step, the
+	 * preceding steps having matched the input up to <code>p</code>.
+	 *
+	 * @param pattern
+	 *            compiled format, in its UTF-8 form for a {@link ByteSequence}
+	 * @return the status of the result
+	 */
+	static int run(ScanPattern pattern, int firstStep, CharSequence in, int start, int p, int end,
+			ScanResult result) {
+		return run(pattern, firstStep, in, start, p, end, result, 0, null);
+	}
+
+	/**
+	 * Resumes a match keeping the first elements of the result, fetched by
+	 * the preceding steps.
+	 *
+	 * @param kept
+	 *            number of elements fetched before <code>firstStep</code>
+	 * @param marks
+	 *            receives the input offset at the start of each step and
+	 *            after the last one, <code>null</code> when not needed; the
+	 *            step the match ended on is then left in
+	 *            {@link ScanResult#reached}
+	 * @return the status of the result
+	 */
+	static int run(ScanPattern pattern, int firstStep, CharSequence in, int start, int p, int end,
+			ScanResult result, int kept, int[] marks) {
+		int length = end;
+		if (kept == 0)
+			result.clear(in, pattern.captures);
+		else
+			result.resume(kept, pattern.captures);
+		if (start == length)
+			return result.end(ScanResult.EMPTY, 0, start, start, 0);
+		ScanPattern.Step[] steps = pattern.steps;
+		for (int s = firstStep; s < steps.length; ++s) {
+			ScanPattern.Step step = steps[s];
+			if (marks != null) {
+				marks[s] = p;
+				result.reached = s;
+			}
+			if (p == length)
+				return result.end(ScanResult.PARTIAL, step.position, p, p, 0);
+			int from = p;
+			switch (step.kind) {
+				case ScanPattern.LITERAL: {
+					char[] lit = step.literal;
+					for (int i = 0; i < lit.length; ++i, ++p) {
+						if (p == length)
+							return result.end(ScanResult.PARTIAL, step.position + i, p, p, 0);
+						if (in.charAt(p) != lit[i]) {
+							if (pattern.bytes && isHighSurrogateOf((ByteSequence) in, p, lit[i])) {
+								p += 3;
+								continue;
+							}
+							return result.end(ScanResult.MISMATCH, step.position + i, p, p + 1, lit[i]);
+						}
+					}
+					break;
+				}
+				case ScanPattern.CHAR:
+					if (step.width != 1) {
+						for (int n = step.width; n > 0;) {
+							if (p == length)
+								return result.end(ScanResult.PARTIAL, step.position, p, p, 0);
+							n -= units(pattern.bytes, in, p, length);
+							p += size(pattern.bytes, in, p, length);
+						}
+						if (step.assigns)
+							result.addString(from, p);
+					} else if (pattern.bytes) {
+						ByteSequence bytes = (ByteSequence) in;
+						int cp = bytes.codePointAt(p);
+						p += bytes.sequenceLength(p);
+						if (step.assigns)
+							result.addChar(Character.isBmpCodePoint(cp) ? (char) cp : Character.highSurrogate(cp), from, p);
+					} else {
+						char c = in.charAt(p++);
+						if (step.assigns)
+							result.addChar(c, from, p);
+					}
+					break;
+				case ScanPattern.SET: {
+					ScanSet set = step.set;
+					for (int n = step.width; p < length;) {
+						int c = in.charAt(p), size = 1, units = 1;
+						if (c >= 0x80) {
+							size = size(pattern.bytes, in, p, length);
+							units = units(pattern.bytes, in, p, length);
+							c = pattern.bytes ? ((ByteSequence) in).codePointAt(p)
+									: size == 2 ? Character.codePointAt(in, p) : c;
+						}
+						if (!set.contains(c) || (n -= units) < 0)
+							break;
+						p += size;
+					}
+					if (p == from)
+						return result.end(ScanResult.MISMATCH, step.position, p, p + 1, -1);
+					if (step.assigns)
+						result.addString(from, p);
+					break;
+				}
+				default:
+					int t = step.terminator;
+					char[] rest = step.terminatorRest;
+					if (step.width == ScanPattern.NO_WIDTH) {
+						for (; p < length; ++p)
+							if (isTerminator(pattern.bytes, in, p, length, t, rest))
+								break;
+					} else {
+						for (int n = step.width; p < length;) {
+							char c = in.charAt(p);
+							if (isTerminator(pattern.bytes, in, p, length, t, rest) || --n < 0)
+								break;
+							if (c < 0x80)
+								++p;
+							else {
+								n -= units(pattern.bytes, in, p, length) - 1;
+								p += size(pattern.bytes, in, p, length);
+							}
+						}
+					}
+					int to = p;
+					if (step.skipsTerminator && p < length)
+						p += rest == null ? 1 : 1 + rest.length;
+					if (step.kind == ScanPattern.STRING) {
+						if (step.assigns)
+							result.addString(from, to);
+					} else if (step.kind == ScanPattern.INTEGER) {
+						CharSequence digits = numberText(pattern.bytes, in, from, to);
+						int f = digits == in ? from : 0, e = digits == in ? to : digits.length();
+						long value = ScanNumbers.decodeLong(digits, f, e, step.radix);
+						if (value == ScanNumbers.INVALID_LONG && !ScanNumbers.isLong(digits, f, e, step.radix))
+							return result.end(ScanResult.BAD_NUMBER, step.position, from, to, step.radix);
+						if (step.assigns)
+							result.addLong(value, from, to);
+					} else {
+						CharSequence digits = numberText(pattern.bytes, in, from, to);
+						double value = digits == in ? ScanNumbers.decodeDouble(in, from, to)
+								: ScanNumbers.decodeDouble(digits, 0, digits.length());
+						if (ScanNumbers.isInvalid(value))
+							return result.end(ScanResult.BAD_NUMBER, step.position, from, to, 0);
+						if (step.assigns)
+							result.addDouble(value, from, to);
+					}
+			}
+		}
+		if (marks != null) {
+			marks[steps.length] = p;
+			result.reached = steps.length;
+		}
+		return result.end(ScanResult.MATCHED, 0, p, p, 0);
+	}
+
+	/**
+	 * @return the input itself, or for UTF-8 bytes holding non-ASCII
+	 *         characters (digits of other scripts) the decoded text of the
+	 *         range, as the char scanner reads it.
+	 */
+	private static CharSequence numberText(boolean bytes, CharSequence in, int from, int to) {
+		if (bytes)
+			for (int i = from; i < to; ++i)
+				if (in.charAt(i) >= 0x80)
+					return in.subSequence(from, to);
+		return in;
+	}
+
+	/**
+	 * @return number of input indexes taken by the character at
+	 *         <code>p</code>: the length of its UTF-8 sequence for bytes, 2
+	 *         for a surrogate pair otherwise.
+	 */
+	private static int size(boolean bytes, CharSequence in, int p, int length) {
+		if (bytes)
+			return ((ByteSequence) in).sequenceLength(p);
+		return Character.isHighSurrogate(in.charAt(p)) && p + 1 < length && Character.isLowSurrogate(in.charAt(p + 1))
+				? 2 : 1;
+	}
+
+	/**
+	 * @return number of UTF-16 units of the character at <code>p</code>,
+	 *         which widths count.
+	 */
+	private static int units(boolean bytes, CharSequence in, int p, int length) {
+		if (bytes)
+			return ((ByteSequence) in).sequenceLength(p) == 4 ? 2 : 1;
+		return size(false, in, p, length);
+	}
+
+	/**
+	 * @return <code>true</code> when the terminator of a capture starts at
+	 *         <code>p</code>.
+	 */
+	private static boolean isTerminator(boolean bytes, CharSequence in, int p, int length, int t, char[] rest) {
+		if (bytes && t > 0xff)
+			return isHighSurrogateOf((ByteSequence) in, p, t);
+		return in.charAt(p) == t && (rest == null || startsWith(in, p + 1, length, rest));
+	}
+
+	/**
+	 * @return <code>true</code> when the UTF-8 sequence at <code>p</code>
+	 *         encodes a character outside the BMP whose high surrogate is
+	 *         <code>unit</code>, a lone surrogate of a UTF-8 pattern.
+	 */
+	private static boolean isHighSurrogateOf(ByteSequence in, int p, int unit) {
+		return unit > 0xff && in.charAt(p) >= 0xf0 && in.sequenceLength(p) == 4
+				&& Character.highSurrogate(in.codePointAt(p)) == unit;
+	}
+
+	private static boolean startsWith(CharSequence in, int p, int length, char[] units) {
+		if (p + units.length > length)
+			return false;
+		for (int i = 0; i < units.length; ++i)
+			if (in.charAt(p + i) != units[i])
+				return false;
+		return true;
+	}
+}
@@ -5,9 +5,17 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * BufferedReader specialization to hold scanf.
@@ -303,24 +311,241 @@ public class Sscanf extends BufferedReader {
 		}
 	}
 
+	/**
+	 * Matches an input string against a format, see {@link #scanf(String)}.
+	 * The compiled form of the format is kept in a bounded cache, so calling
+	 * this repeatedly with the same few formats does not parse them again.
+	 * 
+	 * @param format
+	 *            Format string.
+	 * @param input
+	 *            String to scan.
+	 * @return the fetched elements, an empty array when the input does not
+	 *         match the format
+	 */
 	public static Object[] sscanf(String format, String input) {
-		Object[] ret;
 		try {
-			ret = new Sscanf(new StringReader(input)).scanf(format);
-			return ret;
-
-		} catch (IOException e) {
-			return new Object[0];
+			ScanPattern pattern = pattern(format);
+			SequenceScanner scanner = SequenceScanner.internal();
+			ScanResult result = scanner.scratch;
+			switch (scanner.reset(input).match(pattern, result)) {
+				case ScanResult.EMPTY:
+					return null;
+				case ScanResult.MISMATCH:
+					return new Object[0];
+				case ScanResult.BAD_NUMBER:
+					// NumberFormatException, as the reader-based scanf
+					result.throwError();
+			}
+			return result.toArray();
 		} catch (ParseException e) {
 			return new Object[0];
 		}
 	}
+
+	/**
+	 * Scans one line of a batch with the scanner of the calling thread.
+	 * 
+	 * @return <code>null</code> for an empty line, an empty array when the
+	 *         line does not match or holds an invalid number
+	 */
+	private static Object[] scanLine(ScanPattern pattern, CharSequence line) {
+		SequenceScanner scanner = SequenceScanner.internal();
+		ScanResult result = scanner.scratch;
+		int status = scanner.reset(line).match(pattern, result);
+		if (status == ScanResult.EMPTY)
+			return null;
+		return result.isMatch() ? result.toArray() : new Object[0];
+	}
+
+	/**
+	 * Default number of lines below which {@link #scanAll(String, List)}
+	 * does not split the work further, and {@link #scanAll(String, Stream)}
+	 * scans a stream of known size sequentially.
+	 */
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	/**
+	 * Matches every line of a list against a format, in parallel on the
+	 * common fork-join pool.
+	 * 
+	 * @param format
+	 *            Format string.
+	 * @param lines
+	 *            Strings to scan.
+	 * @return for each line, in order, what {@link #sscanf(String, String)}
+	 *         returns for it, except that a line holding an invalid number
+	 *         gives an empty array instead of failing the whole batch
+	 */
+	public static List<Object[]> scanAll(String format, List<? extends CharSequence> lines) {
+		return scanAll(format, lines, ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Matches every line of a list against a format, in parallel. Each
+	 * worker thread scans with its own {@link SequenceScanner}.
+	 * 
+	 * @param format
+	 *            Format string.
+	 * @param lines
+	 *            Strings to scan.
+	 * @param pool
+	 *            pool running the scans
+	 * @param threshold
+	 *            number of lines below which a task scans its lines itself
+	 *            instead of splitting them
+	 * @return for each line, in order, what {@link #sscanf(String, String)}
+	 *         returns for it, except that a line holding an invalid number
+	 *         gives an empty array instead of failing the whole batch
+	 */
+	public static List<Object[]> scanAll(String format, List<? extends CharSequence> lines, ForkJoinPool pool,
+			int threshold) {
+		if (threshold < 1)
+			throw new IllegalArgumentException("invalid threshold: " + threshold);
+		Object[][] results = new Object[lines.size()][];
+		try {
+			CharSequence[] input = lines.toArray(new CharSequence[results.length]);
+			pool.invoke(new ScanTask(pattern(format), input, results, 0, results.length, threshold));
+		} catch (ParseException e) {
+			for (int i = 0; i < results.length; ++i)
+				results[i] = new Object[0];
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Matches every line of a stream against a format, see
+	 * {@link #scanAll(String, Stream, int)}; a stream of a known size below
+	 * {@link #DEFAULT_THRESHOLD} lines is scanned sequentially.
+	 * 
+	 * @param format
+	 *            Format string.
+	 * @param lines
+	 *            Strings to scan.
+	 * @return for each line, what {@link #sscanf(String, String)} returns for
+	 *         it, an empty array for a line holding an invalid number
+	 */
+	public static Stream<Object[]> scanAll(String format, Stream<? extends CharSequence> lines) {
+		return scanAll(format, lines, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Matches every line of a stream against a format. The returned stream
+	 * is parallel, unless the stream knows its size and it is below the
+	 * threshold: then splitting the lines would cost more than scanning them
+	 * and it is sequential. A parallel stream is scanned by the fork-join
+	 * pool running the terminal operation (the common pool, or the pool of
+	 * the task calling it), each worker thread with its own
+	 * {@link SequenceScanner}, and an ordered source keeps its order.
+	 * 
+	 * @param format
+	 *            Format string.
+	 * @param lines
+	 *            Strings to scan.
+	 * @param threshold
+	 *            number of lines below which a stream of known size is
+	 *            scanned sequentially
+	 * @return for each line, what {@link #sscanf(String, String)} returns for
+	 *         it, an empty array for a line holding an invalid number
+	 */
+	public static Stream<Object[]> scanAll(String format, Stream<? extends CharSequence> lines, int threshold) {
+		if (threshold < 1)
+			throw new IllegalArgumentException("invalid threshold: " + threshold);
+		Spliterator<? extends CharSequence> split = lines.spliterator();
+		long size = split.getExactSizeIfKnown();
+		Stream<? extends CharSequence> input = StreamSupport.stream(split, size < 0 || size >= threshold)
+				.onClose(lines::close);
+		final ScanPattern pattern;
+		try {
+			pattern = pattern(format);
+		} catch (ParseException e) {
+			return input.map(line -> new Object[0]);
+		}
+		return input.map(line -> scanLine(pattern, line));
+	}
+
+	/**
+	 * Scans a range of lines, splitting it in halves down to the threshold.
+	 */
+	@SuppressWarnings("serial")
+	private static final class ScanTask extends RecursiveAction {
+
+		private final ScanPattern pattern;
+		private final CharSequence[] lines;
+		private final Object[][] results;
+		private final int from, to, threshold;
+
+		ScanTask(ScanPattern pattern, CharSequence[] lines, Object[][] results, int from, int to, int threshold) {
+			this.pattern = pattern;
+			this.lines = lines;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= threshold) {
+				for (int i = from; i < to; ++i)
+					results[i] = scanLine(pattern, lines[i]);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new ScanTask(pattern, lines, results, from, mid, threshold),
+					new ScanTask(pattern, lines, results, mid, to, threshold));
+		}
+	}
+
+	/**
+	 * Compiled formats used by {@link #sscanf(String, String)}.
+	 */
+	private static final BoundedCache<String, ScanPattern> patterns = new BoundedCache<String, ScanPattern>(64);
+
+	/**
+	 * @param format
+	 *            Format string.
+	 * @return the compiled format, from the cache when possible
+	 * @throws ParseException
+	 *             {@link ScanPattern#compile(String)}
+	 */
+	static ScanPattern pattern(String format) throws ParseException {
+		ScanPattern p = patterns.get(format);
+		if (p == null) {
+			p = ScanPattern.compile(format);
+			patterns.put(format, p);
+		}
+		return p;
+	}
 	
 	@SuppressWarnings("unchecked")
 	public static <M> M cast(Object[] obj, int i) { 
 		return (M) obj[i];
 	}
 
+	/**
+	 * Time fields of a log line, bound by {@link #main(String[])}.
+	 */
+	static final class Stamp {
+		int year, month, day, hour, minute, second;
+	}
+
+	/**
+	 * Setter of the {@link Stamp} binder held as a constant.
+	 */
+	private static final class StampSetter {
+		static final MethodHandle setter = stampBinder().setter();
+	}
+
+	private static ScanBinder<Stamp> stampBinder() {
+		try {
+			return ScanBinder.of("%d-%d-%d %d:%d:%d [%s] %s", Stamp.class, "year", "month", "day", "hour", "minute",
+					"second", null, null);
+		} catch (ParseException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	/**
 	 * Test sequence.
 	 * 
@@ -334,9 +559,16 @@ public class Sscanf extends BufferedReader {
 				{ "pi = 3.14159", "pi = %f" }, { "testing octal = 2634%", "testing octal = %o%%" },
 				{ "testing hex = baadf00d", "testing hex = %x" },
 				{ "2009-03-21 13:28:32 [INFO] Trying to log anything", "%d-%d-%d %d:%d:%d [%s] %s" },
-				{ "the character A", "the character %c" } };
+				{ "the character A", "the character %c" },
+				// a digit of another script: UTF-8 bytes must give the same value
+				{ "n=\u0663;x", "n=%d;%s" },
+				// terminators outside the BMP, a surrogate pair in chars
+				{ "ab\ud83d\ude00x", "%s\ud83d\ude00x" }, { "12\ud83d\ude00", "%d\ud83d\ude00" } };
 
 		double[] avg = new double[testPair.length];
+		double[] avgScanner = new double[testPair.length];
+		SequenceScanner scanner = new SequenceScanner();
+		ByteScanner byteScanner = new ByteScanner();
 
 		int attempts = 1000;
 		for (int n = 0; n < attempts; ++n) {
@@ -345,14 +577,113 @@ public class Sscanf extends BufferedReader {
 				long start = System.nanoTime();
 				Object[] ret = new Sscanf(new StringReader(pair[0])).scanf(pair[1]);
 				long end = System.nanoTime();
-				if (n > 0)
+				ScanPattern pattern = pattern(pair[1]);
+				long startScanner = System.nanoTime();
+				scanner.reset(pair[0]).scan(pattern);
+				long endScanner = System.nanoTime();
+				if (n > 0) {
 					avg[t] += (end - start) / 1e6;
+					avgScanner[t] += (endScanner - startScanner) / 1e6;
+				}
 				if (n + 1 == attempts) {
+					Object[] fromChars = scanner.reset(pair[0]).scan(pattern);
+					byte[] bytes = pair[0].getBytes(StandardCharsets.UTF_8);
+					Object[] fromBytes = byteScanner.reset(bytes, 0, bytes.length).scan(pattern);
+					if (!Arrays.equals(fromChars, fromBytes))
+						throw new IllegalStateException("bytes of \"" + pair[0] + "\" scanned as " + Arrays.toString(fromBytes)
+								+ ", chars as " + Arrays.toString(fromChars));
 					for (Object r : ret)
 						System.out.println(r);
-					System.out.printf("%f%n", avg[t] / (n - 1));
+					System.out.printf("reader %f, scanner %f%n", avg[t] / (n - 1), avgScanner[t] / (n - 1));
 				}
 			}
 		}
+
+		// the library scans with its own scanners, not the caller's one
+		SequenceScanner own = SequenceScanner.forThread().reset(testPair[0][0]);
+		sscanf(testPair[1][1], testPair[1][0]);
+		pattern(testPair[2][1]).scan(testPair[2][0]);
+		if (!Arrays.equals(own.scan(pattern(testPair[0][1])), scanner.reset(testPair[0][0]).scan(pattern(testPair[0][1]))))
+			throw new IllegalStateException("the scanner of the calling thread was reset by the library");
+
+		// numbers decoded from the input characters, and from a String copy of each capture as they were before
+		String numbers = "2009-03-21 13:28:32 3.14159 baadf00d";
+		ScanPattern decoded = pattern("%d-%d-%d %d:%d:%d %f %x"), copied = pattern("%s-%s-%s %s:%s:%s %s %s");
+		ScanResult numberResult = new ScanResult();
+		double[] numberTimes = new double[2];
+		double fromInput = 0, fromCopies = 0;
+		int scans = 200000;
+		for (int n = 0; n < 10; ++n) {
+			fromInput = fromCopies = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < scans; ++i) {
+				scanner.reset(numbers).match(decoded, numberResult);
+				for (int c = 0; c < 6; ++c)
+					fromInput += numberResult.getLong(c);
+				fromInput += numberResult.getDouble(6) + numberResult.getLong(7);
+			}
+			long direct = System.nanoTime();
+			for (int i = 0; i < scans; ++i) {
+				scanner.reset(numbers).match(copied, numberResult);
+				for (int c = 0; c < 6; ++c)
+					fromCopies += Long.parseLong(numberResult.getString(c));
+				fromCopies += Double.parseDouble(numberResult.getString(6)) + Long.parseLong(numberResult.getString(7), 16);
+			}
+			long parsed = System.nanoTime();
+			numberTimes[0] = (direct - start) / (double) scans;
+			numberTimes[1] = (parsed - direct) / (double) scans;
+		}
+		if (fromInput != fromCopies)
+			throw new IllegalStateException("numbers decoded as " + fromInput + ", parsed as " + fromCopies);
+		System.out.printf("number scan ns: from the input %.1f, from String copies %.1f%n", numberTimes[0],
+				numberTimes[1]);
+
+		// binding the time fields of two lines in turn: by hand, with bind() and with the setter held as a constant
+		ScanResult[] stamps = { new ScanResult(), new ScanResult() };
+		scanner.reset(testPair[7][0]).match(pattern(testPair[7][1]), stamps[0]);
+		scanner.reset(testPair[7][0].replace("13:28", "14:29")).match(pattern(testPair[7][1]), stamps[1]);
+		ScanBinder<Stamp> binder = stampBinder();
+		Stamp stamp = new Stamp();
+		double[] bindTimes = new double[3];
+		int binds = 1000000;
+		for (int n = 0; n < 10; ++n) {
+			long start = System.nanoTime();
+			for (int i = 0; i < binds; ++i) {
+				ScanResult r = stamps[i & 1];
+				stamp.year = (int) r.getLong(0);
+				stamp.month = (int) r.getLong(1);
+				stamp.day = (int) r.getLong(2);
+				stamp.hour = (int) r.getLong(3);
+				stamp.minute = (int) r.getLong(4);
+				stamp.second = (int) r.getLong(5);
+			}
+			long byHand = System.nanoTime();
+			for (int i = 0; i < binds; ++i)
+				binder.bind(stamps[i & 1], stamp);
+			long bound = System.nanoTime();
+			for (int i = 0; i < binds; ++i)
+				StampSetter.setter.invokeExact((Object) stamp, stamps[i & 1]);
+			long constant = System.nanoTime();
+			bindTimes[0] = (byHand - start) / (double) binds;
+			bindTimes[1] = (bound - byHand) / (double) binds;
+			bindTimes[2] = (constant - bound) / (double) binds;
+		}
+		if (stamp.hour != 14 || stamp.minute != 29)
+			throw new IllegalStateException("bound " + stamp.hour + ":" + stamp.minute);
+		System.out.printf("bind ns: by hand %.1f, bind() %.1f, static final setter %.1f%n", bindTimes[0], bindTimes[1],
+				bindTimes[2]);
+
+		// keys looked up between puts stay cached while one-off keys overflow the cache
+		BoundedCache<String, ScanPattern> cache = new BoundedCache<String, ScanPattern>(8);
+		for (int t = 0; t < 4; ++t)
+			cache.put(testPair[t][1], pattern(testPair[t][1]));
+		for (int n = 0; n < 10000; ++n) {
+			cache.put("%d " + n, pattern(testPair[0][1]));
+			for (int t = 0; t < 4; ++t)
+				if (cache.get(testPair[t][1]) == null)
+					throw new IllegalStateException("\"" + testPair[t][1] + "\" evicted after " + n + " puts");
+			if (cache.size() > 8)
+				throw new IllegalStateException(cache.size() + " entries in a cache of 8");
+		}
 	}
 }
\ No newline at end of file
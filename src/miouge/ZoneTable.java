@@ -0,0 +1,355 @@
+package miouge;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Offsets of a zone as sorted arrays, so that converting between epoch
+ * seconds and local seconds is a binary search plus integer math.
+ * <p>
+ * A fixed offset zone has a single offset and no range. Other zones keep
+ * their transitions between January 1st of {@link #getFirstYear()} and the
+ * end of {@link #getLastYear()} (UTC); outside of it operations return
+ * {@link CivilTime#OUT_OF_RANGE} and callers fall back to java.time.
+ * <p>
+ * Local times in a gap or an overlap are resolved as
+ * {@link java.time.ZonedDateTime#ofLocal} does: a time in a gap is moved
+ * forward by the length of the gap, a time in an overlap keeps the
+ * preferred offset when it is one of the two, the earlier one otherwise.
+ */
+final class ZoneTable {
+
+	// no offset to keep in an overlap, as ZonedDateTime.of
+	static final int NO_PREFERENCE = Integer.MIN_VALUE;
+
+	// largest offset java.time allows, 18 hours
+	private static final int MAX_OFFSET = 18 * 3600;
+
+	private static final BoundedCache<ZoneId, ZoneTable> tables = new BoundedCache<ZoneId, ZoneTable>( 64 );
+
+	private static volatile int firstYear = 1900;
+	private static volatile int lastYear = 2100;
+
+	private final boolean fixed;
+	private final int fromYear;
+	private final int toYear;
+
+	// covered epochs, the end excluded
+	private final long minEpoch;
+	private final long maxEpoch;
+
+	// instants of the transitions, sorted
+	private final long[] transitions;
+
+	// offset before each transition, then after the last one
+	private final int[] offsets;
+
+	// local seconds where each transition starts and ends its gap or overlap
+	private final long[] windowStarts;
+	private final long[] windowEnds;
+
+	private ZoneTable( int offset ) {
+
+		this.fixed = true;
+		this.fromYear = 0;
+		this.toYear = 0;
+		this.minEpoch = Long.MIN_VALUE;
+		this.maxEpoch = Long.MAX_VALUE;
+		this.transitions = new long[0];
+		this.offsets = new int[] { offset };
+		this.windowStarts = new long[0];
+		this.windowEnds = new long[0];
+	}
+
+	private ZoneTable( ZoneRules rules, int fromYear, int toYear ) {
+
+		this.fixed = false;
+		this.fromYear = fromYear;
+		this.toYear = toYear;
+		this.minEpoch = CivilTime.daysFromCivil( fromYear, 1, 1 ) * CivilTime.SECONDS_PER_DAY;
+		this.maxEpoch = CivilTime.daysFromCivil( toYear + 1, 1, 1 ) * CivilTime.SECONDS_PER_DAY;
+
+		// a margin around the range so that windows at its edges are complete
+		Instant start = Instant.ofEpochSecond( minEpoch - CivilTime.SECONDS_PER_DAY );
+		long end = maxEpoch + CivilTime.SECONDS_PER_DAY;
+
+		List<ZoneOffsetTransition> found = new ArrayList<ZoneOffsetTransition>();
+		ZoneOffsetTransition transition = rules.nextTransition( start );
+		while( transition != null && transition.toEpochSecond() < end ) {
+			found.add( transition );
+			transition = rules.nextTransition( transition.getInstant() );
+		}
+
+		int count = found.size();
+		this.transitions = new long[count];
+		this.offsets = new int[count + 1];
+		this.windowStarts = new long[count];
+		this.windowEnds = new long[count];
+
+		offsets[0] = rules.getOffset( start ).getTotalSeconds();
+		for( int i = 0; i < count; i++ ) {
+
+			ZoneOffsetTransition t = found.get( i );
+			int before = t.getOffsetBefore().getTotalSeconds();
+			int after = t.getOffsetAfter().getTotalSeconds();
+			transitions[i] = t.toEpochSecond();
+			offsets[i + 1] = after;
+			windowStarts[i] = transitions[i] + Math.min( before, after );
+			windowEnds[i] = transitions[i] + Math.max( before, after );
+		}
+	}
+
+	// table of a zone for the current year range
+	static ZoneTable of( ZoneId zoneId ) {
+
+		ZoneTable table = tables.get( zoneId );
+		if( table == null || table.isStale() ) {
+			table = build( zoneId );
+			tables.put( zoneId, table );
+		}
+		return table;
+	}
+
+	private static ZoneTable build( ZoneId zoneId ) {
+
+		int offset = CivilTime.fixedOffset( zoneId );
+		if( offset != CivilTime.NOT_FIXED ) {
+			return new ZoneTable( offset );
+		}
+		return new ZoneTable( zoneId.getRules(), firstYear, lastYear );
+	}
+
+	static void setYears( int fromYear, int toYear ) {
+
+		if( fromYear < 1 || toYear > 9999 || fromYear > toYear ) {
+			throw new IllegalArgumentException( "invalid year range: " + fromYear + " - " + toYear );
+		}
+		firstYear = fromYear;
+		lastYear = toYear;
+	}
+
+	static int getFirstYear() {
+		return firstYear;
+	}
+
+	static int getLastYear() {
+		return lastYear;
+	}
+
+	private boolean isStale() {
+
+		return !fixed && ( fromYear != firstYear || toYear != lastYear );
+	}
+
+	//-------------------------------- conversions -----------------------------
+
+	// offset at an instant, CivilTime.NOT_FIXED outside the range
+	int offsetAt( long epoch ) {
+
+		if( epoch < minEpoch || epoch >= maxEpoch ) {
+			return CivilTime.NOT_FIXED;
+		}
+		// last transition at or before the instant
+		int lo = 0;
+		int hi = transitions.length - 1;
+		while( lo <= hi ) {
+			int mid = ( lo + hi ) >>> 1;
+			if( transitions[mid] <= epoch ) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid - 1;
+			}
+		}
+		return offsets[lo];
+	}
+
+	// true when an instant has a local time in the table
+	boolean covers( long epoch ) {
+
+		if( fixed ) {
+			return CivilTime.toLocal( epoch, offsets[0] ) != CivilTime.OUT_OF_RANGE;
+		}
+		return epoch >= minEpoch && epoch < maxEpoch;
+	}
+
+	// local seconds of an instant, OUT_OF_RANGE outside the range
+	long toLocal( long epoch ) {
+
+		if( fixed ) {
+			return CivilTime.toLocal( epoch, offsets[0] );
+		}
+		int offset = offsetAt( epoch );
+		return offset == CivilTime.NOT_FIXED ? CivilTime.OUT_OF_RANGE : epoch + offset;
+	}
+
+	// instant of local seconds, OUT_OF_RANGE outside the range
+	long toEpoch( long local, int preferredOffset ) {
+
+		if( local == CivilTime.OUT_OF_RANGE ) {
+			return CivilTime.OUT_OF_RANGE;
+		}
+		if( fixed ) {
+			return local - offsets[0];
+		}
+		if( local < minEpoch + MAX_OFFSET || local >= maxEpoch - MAX_OFFSET ) {
+			return CivilTime.OUT_OF_RANGE;
+		}
+		int lo = windowsBefore( local );
+		int i = lo - 1;
+		if( i >= 0 && local < windowEnds[i] ) {
+			int before = offsets[i];
+			int after = offsets[i + 1];
+			if( after > before ) {
+				// gap, moved forward to the same distance after the transition
+				return local - before;
+			}
+			// overlap
+			return preferredOffset == after ? local - after : local - before;
+		}
+		return local - offsets[lo];
+	}
+
+	//-------------------------------- segments --------------------------------
+
+	// Between two windows a local time has a single offset. Segment i lies between
+	// the windows of transitions i - 1 and i and has offsets[i].
+
+	// segment of a local time, -1 in a window or outside the range
+	int segmentOf( long local ) {
+
+		if( fixed ) {
+			return 0;
+		}
+		if( local < minEpoch + MAX_OFFSET || local >= maxEpoch - MAX_OFFSET ) {
+			return -1;
+		}
+		int lo = windowsBefore( local );
+		return lo > 0 && local < windowEnds[lo - 1] ? -1 : lo;
+	}
+
+	// first local time of a segment
+	long segmentStart( int segment ) {
+
+		if( fixed ) {
+			return Long.MIN_VALUE;
+		}
+		return segment == 0 ? minEpoch + MAX_OFFSET : windowEnds[segment - 1];
+	}
+
+	// local time after the end of a segment
+	long segmentEnd( int segment ) {
+
+		if( fixed ) {
+			return Long.MAX_VALUE;
+		}
+		return segment == transitions.length ? maxEpoch - MAX_OFFSET : windowStarts[segment];
+	}
+
+	int segmentOffset( int segment ) {
+
+		return offsets[segment];
+	}
+
+	// number of windows starting at or before a local time
+	private int windowsBefore( long local ) {
+
+		int lo = 0;
+		int hi = windowStarts.length - 1;
+		while( lo <= hi ) {
+			int mid = ( lo + hi ) >>> 1;
+			if( windowStarts[mid] <= local ) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid - 1;
+			}
+		}
+		return lo;
+	}
+
+	//-------------------------------- arithmetic ------------------------------
+
+	// epoch plus amounts applied one after the other, as ZonedDateTime.plusXxx
+	long add( long epoch, long years, long months, long days, long hours, long minutes, long seconds ) {
+
+		if( fixed ) {
+			return CivilTime.add( epoch, offsets[0], years, months, days, hours, minutes, seconds );
+		}
+		if( epoch < minEpoch || epoch >= maxEpoch ) {
+			return CivilTime.OUT_OF_RANGE;
+		}
+		epoch = plusDate( epoch, years, 'A' );
+		epoch = plusDate( epoch, months, 'M' );
+		epoch = plusDate( epoch, days, 'D' );
+		epoch = plusTime( epoch, hours, 3600 );
+		epoch = plusTime( epoch, minutes, 60 );
+		epoch = plusTime( epoch, seconds, 1 );
+		return epoch;
+	}
+
+	// epoch shifted by an amount of EpochTool period units ('H', 'D', 'M', 'A' or 'T')
+	long shift( long epoch, long amount, char periodUnit ) {
+
+		if( fixed ) {
+			return CivilTime.shift( epoch, offsets[0], amount, periodUnit );
+		}
+		if( epoch < minEpoch || epoch >= maxEpoch ) {
+			return CivilTime.OUT_OF_RANGE;
+		}
+		switch( periodUnit )
+		{
+			case 'H':
+				return plusTime( epoch, amount, 3600 );
+			case 'D':
+				return plusDate( epoch, amount, 'D' );
+			case 'M':
+				return plusDate( epoch, amount, 'M' );
+			case 'A':
+			case 'T':
+				return plusDate( epoch, amount, 'A' );
+			default:
+				return CivilTime.OUT_OF_RANGE;
+		}
+	}
+
+	// date amounts move the local time and keep the offset when still valid
+	private long plusDate( long epoch, long amount, char unit ) {
+
+		if( epoch == CivilTime.OUT_OF_RANGE || amount == 0 ) {
+			return epoch;
+		}
+		long local = toLocal( epoch );
+		if( local == CivilTime.OUT_OF_RANGE ) {
+			return CivilTime.OUT_OF_RANGE;
+		}
+		int offset = (int)( local - epoch );
+		switch( unit )
+		{
+			case 'A':
+				local = CivilTime.plusYears( local, amount );
+				break;
+			case 'M':
+				local = CivilTime.plusMonths( local, amount );
+				break;
+			default:
+				local = CivilTime.plusDays( local, amount );
+				break;
+		}
+		return toEpoch( local, offset );
+	}
+
+	// time amounts move the instant
+	private long plusTime( long epoch, long amount, long unitSeconds ) {
+
+		if( epoch == CivilTime.OUT_OF_RANGE || amount < -CivilTime.MAX_AMOUNT || amount > CivilTime.MAX_AMOUNT ) {
+			return CivilTime.OUT_OF_RANGE;
+		}
+		long output = epoch + amount * unitSeconds;
+		return output < minEpoch || output >= maxEpoch ? CivilTime.OUT_OF_RANGE : output;
+	}
+}